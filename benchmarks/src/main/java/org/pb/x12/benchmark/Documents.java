@@ -0,0 +1,170 @@
+/*
+   Copyright [2011] [Prasad Balan]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.pb.x12.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.pb.x12.Cf;
+import org.pb.x12.X12Generator;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * The documents and Cf hierarchies used by the benchmarks. The Cf
+ * hierarchies are read from the Spring files of the examples, the 835 and
+ * 837 documents are generated by X12Generator with one transaction of the
+ * number of claims asked for.
+ *
+ * @author Prasad Balan
+ */
+final class Documents {
+
+	private Documents() {
+	}
+
+	/**
+	 * Returns the Cf hierarchy of the 835 or 837 transaction.
+	 *
+	 * @param type
+	 *            835 or 837
+	 * @return the root of the Cf hierarchy
+	 */
+	static Cf cf(String type) {
+		if (type.equals("835")) {
+			return loadCf("/cf/appContext_835_004010X091.xml");
+		}
+		if (type.equals("837")) {
+			return loadCf("/cf/appContext_837_004010X098.xml");
+		}
+		throw new IllegalArgumentException("Type: " + type);
+	}
+
+	/**
+	 * Returns a 835 or 837 document.
+	 *
+	 * @param type
+	 *            835 or 837
+	 * @param claims
+	 *            number of claims
+	 * @return String
+	 */
+	static String document(String type, int claims) {
+		X12Generator generator = new X12Generator(type);
+		generator.setClaims(claims);
+		generator.setServiceLines(type.equals("835") ? 2 : 3);
+		return generator.generate();
+	}
+
+	/**
+	 * Writes the document to a temporary file, deleted when the JVM exits.
+	 *
+	 * @param document
+	 *            String
+	 * @return File
+	 * @throws IOException
+	 */
+	static File write(String document) throws IOException {
+		File file = File.createTempFile("x12-benchmark", ".txt");
+		file.deleteOnExit();
+		Files.write(file.toPath(), document.getBytes(StandardCharsets.ISO_8859_1));
+		return file;
+	}
+
+	/**
+	 * Builds the Cf hierarchy of a Spring file with the JDK XML parser, the
+	 * same way Spring would with the singleton beans of the file.
+	 */
+	private static Cf loadCf(String resource) {
+		Document document;
+		InputStream in = Documents.class.getResourceAsStream(resource);
+		try {
+			try {
+				document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in);
+			} finally {
+				in.close();
+			}
+		} catch (Exception e) {
+			throw new IllegalStateException("Cannot read " + resource, e);
+		}
+		Map<String, Element> beans = new HashMap<String, Element>();
+		NodeList list = document.getElementsByTagName("bean");
+		for (int i = 0; i < list.getLength(); i++) {
+			Element bean = (Element) list.item(i);
+			beans.put(bean.getAttribute("id"), bean);
+		}
+		return bean("bean_X12", beans, new HashMap<String, Cf>());
+	}
+
+	private static Cf bean(String id, Map<String, Element> beans, Map<String, Cf> created) {
+		Cf cf = created.get(id);
+		if (cf != null) {
+			return cf;
+		}
+		Element bean = beans.get(id);
+		if (bean == null) {
+			throw new IllegalStateException("No bean " + id);
+		}
+		List<String> args = new ArrayList<String>();
+		List<String> refs = new ArrayList<String>();
+		for (Node node = bean.getFirstChild(); node != null; node = node.getNextSibling()) {
+			if (!(node instanceof Element)) {
+				continue;
+			}
+			Element e = (Element) node;
+			if (e.getTagName().equals("constructor-arg")) {
+				args.add(e.getAttribute("value"));
+			} else if (e.getTagName().equals("property")) {
+				NodeList children = e.getElementsByTagName("ref");
+				for (int i = 0; i < children.getLength(); i++) {
+					refs.add(((Element) children.item(i)).getAttribute("bean"));
+				}
+			}
+		}
+		switch (args.size()) {
+		case 1:
+			cf = new Cf(args.get(0));
+			break;
+		case 2:
+			cf = new Cf(args.get(0), args.get(1));
+			break;
+		case 4:
+			cf = new Cf(args.get(0), args.get(1), args.get(2), Integer.valueOf(args.get(3)));
+			break;
+		default:
+			throw new IllegalStateException("Bean " + id + " has " + args.size() + " arguments");
+		}
+		created.put(id, cf);
+		List<Cf> children = new ArrayList<Cf>();
+		for (String ref : refs) {
+			children.add(bean(ref, beans, created));
+		}
+		cf.setChildren(children);
+		return cf;
+	}
+}
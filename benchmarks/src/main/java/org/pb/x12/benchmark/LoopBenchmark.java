@@ -0,0 +1,164 @@
+/*
+   Copyright [2011] [Prasad Balan]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.pb.x12.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pb.x12.FormatException;
+import org.pb.x12.Loop;
+import org.pb.x12.Segment;
+import org.pb.x12.X12;
+import org.pb.x12.X12Parser;
+
+/**
+ * Throughput of writing and searching a parsed X12 object: toString(),
+ * toXML(), findLoop() for the claim loops and findSegment() for the service
+ * lines.
+ *
+ * The X12 object is parsed once, the searches after the first one use the
+ * index built by the first search. The recursive benchmarks walk the tree
+ * the way Loop did before its walks became iterative, as a baseline.
+ *
+ * @author Prasad Balan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoopBenchmark {
+
+	@Param({ "835", "837" })
+	public String type;
+
+	@Param({ "10", "1000", "10000" })
+	public int size;
+
+	private X12 x12;
+	private String loop;
+	private String segment;
+
+	@Setup
+	public void setUp() throws FormatException {
+		x12 = (X12) new X12Parser(Documents.cf(type)).parse(Documents.document(type, size));
+		loop = type.equals("835") ? "2100" : "2300";
+		segment = type.equals("835") ? "SVC" : "SV1";
+	}
+
+	@Benchmark
+	public String x12ToString() {
+		return x12.toString();
+	}
+
+	@Benchmark
+	public String x12ToXML() {
+		return x12.toXML();
+	}
+
+	@Benchmark
+	public List<Loop> findLoop() {
+		return x12.findLoop(loop);
+	}
+
+	@Benchmark
+	public List<Segment> findSegment() {
+		return x12.findSegment(segment);
+	}
+
+	@Benchmark
+	public String recursiveToString() {
+		return recursiveToString(x12);
+	}
+
+	@Benchmark
+	public String recursiveToXML() {
+		return recursiveToXML(x12);
+	}
+
+	@Benchmark
+	public List<Loop> recursiveFindLoop() {
+		return recursiveFindLoop(x12, loop);
+	}
+
+	@Benchmark
+	public List<Segment> recursiveFindSegment() {
+		return recursiveFindSegment(x12, segment);
+	}
+
+	private static String recursiveToString(Loop loop) {
+		StringBuilder dump = new StringBuilder();
+		for (Segment s : loop.getSegments()) {
+			dump.append(s.toString(false));
+			dump.append(loop.getContext().getSegmentSeparator());
+		}
+		for (Loop l : loop.childList()) {
+			dump.append(recursiveToString(l));
+		}
+		return dump.toString();
+	}
+
+	private static String recursiveToXML(Loop loop) {
+		StringBuilder dump = new StringBuilder();
+		dump.append("<LOOP NAME=\"").append(loop.getName()).append("\">");
+		for (Segment s : loop.getSegments()) {
+			dump.append(s.toXML(false));
+		}
+		for (Loop l : loop.childList()) {
+			dump.append(recursiveToXML(l));
+		}
+		dump.append("</LOOP>");
+		return dump.toString();
+	}
+
+	private static List<Loop> recursiveFindLoop(Loop loop, String name) {
+		List<Loop> foundLoops = new ArrayList<Loop>();
+		for (Loop l : loop.childList()) {
+			if (name.equals(l.getName())) {
+				foundLoops.add(l);
+			}
+			foundLoops.addAll(recursiveFindLoop(l, name));
+		}
+		return foundLoops;
+	}
+
+	private static List<Segment> recursiveFindSegment(Loop loop, String name) {
+		List<Segment> foundSegments = new ArrayList<Segment>();
+		for (Segment s : loop.getSegments()) {
+			if (name.equals(s.getElement(0))) {
+				foundSegments.add(s);
+			}
+		}
+		for (Loop l : loop.childList()) {
+			foundSegments.addAll(recursiveFindSegment(l, name));
+		}
+		return foundSegments;
+	}
+}
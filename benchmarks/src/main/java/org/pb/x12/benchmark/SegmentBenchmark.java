@@ -0,0 +1,85 @@
+/*
+   Copyright [2011] [Prasad Balan]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.pb.x12.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pb.x12.Context;
+import org.pb.x12.Segment;
+
+/**
+ * Throughput of building segments with <code>addElements()</code>, from a
+ * segment string and from an array of elements, for segments of increasing
+ * number of elements.
+ *
+ * @author Prasad Balan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SegmentBenchmark {
+
+	@Param({ "5", "20", "100" })
+	public int size;
+
+	private Context context;
+	private String segment;
+	private String[] elements;
+
+	@Setup
+	public void setUp() {
+		context = new Context('~', '*', ':');
+		elements = new String[size];
+		elements[0] = "SV1";
+		for (int i = 1; i < size; i++) {
+			elements[i] = "E" + i;
+		}
+		StringBuilder s = new StringBuilder(elements[0]);
+		for (int i = 1; i < size; i++) {
+			s.append('*').append(elements[i]);
+		}
+		segment = s.toString();
+	}
+
+	@Benchmark
+	public Segment addElementsString() {
+		Segment s = new Segment(context);
+		s.addElements(segment);
+		return s;
+	}
+
+	@Benchmark
+	public Segment addElementsArray() {
+		Segment s = new Segment(context);
+		s.addElements(elements);
+		return s;
+	}
+}
@@ -0,0 +1,87 @@
+/*
+   Copyright [2011] [Prasad Balan]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.pb.x12.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pb.x12.EDI;
+import org.pb.x12.FormatException;
+import org.pb.x12.X12SimpleParser;
+
+/**
+ * Throughput of <code>X12SimpleParser</code> with 835 and 837 documents of
+ * increasing number of claims.
+ *
+ * @author Prasad Balan
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class X12SimpleParserBenchmark {
+
+	@Param({ "835", "837" })
+	public String type;
+
+	@Param({ "10", "1000", "10000" })
+	public int size;
+
+	private X12SimpleParser parser;
+	private String source;
+	private byte[] bytes;
+	private File file;
+
+	@Setup
+	public void setUp() throws IOException {
+		parser = new X12SimpleParser();
+		source = Documents.document(type, size);
+		bytes = source.getBytes(StandardCharsets.ISO_8859_1);
+		file = Documents.write(source);
+	}
+
+	@Benchmark
+	public EDI parseString() throws FormatException {
+		return parser.parse(source);
+	}
+
+	@Benchmark
+	public EDI parseFile() throws FormatException, IOException {
+		return parser.parse(file);
+	}
+
+	@Benchmark
+	public EDI parseInputStream() throws FormatException, IOException {
+		return parser.parse(new ByteArrayInputStream(bytes));
+	}
+}
@@ -0,0 +1,58 @@
+/*
+   Copyright [2011] [Prasad Balan]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.pb.x12;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read only list of the elements of a segment, backed by the
+ * <code>ByteBuffer</code> the segment was parsed from.
+ *
+ * @author Prasad Balan
+ */
+final class ByteElements extends SourceElements {
+
+	private final ByteBuffer buffer;
+
+	/**
+	 * The constructor takes the buffer, the positions of the elements and
+	 * the elements already created.
+	 *
+	 * @param buffer
+	 *            source
+	 * @param starts
+	 *            positions of the elements, followed by the position after
+	 *            the end of the last element plus one
+	 * @param elements
+	 *            the elements created, null for those to read from the
+	 *            buffer, can be null
+	 */
+	ByteElements(ByteBuffer buffer, int[] starts, String[] elements) {
+		super(starts, elements);
+		this.buffer = buffer;
+	}
+
+	@Override
+	char charAt(int index) {
+		return (char) (buffer.get(index) & 0xFF);
+	}
+
+	@Override
+	String decode(int start, int end) {
+		return ByteTokenizer.decode(buffer, start, end);
+	}
+}
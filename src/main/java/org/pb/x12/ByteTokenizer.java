@@ -0,0 +1,118 @@
+/*
+   Copyright [2011] [Prasad Balan]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.pb.x12;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tokenizer over a X12 transaction held in a <code>ByteBuffer</code>. Each
+ * byte is read as one ISO-8859-1 character, so no charset decoding takes
+ * place. The segments created are backed by the buffer and only create the
+ * elements that are read.
+ *
+ * The position and limit of the buffer are not modified, a heap or a direct
+ * buffer can be used.
+ *
+ * @author Prasad Balan
+ */
+class ByteTokenizer extends Tokenizer {
+
+	private ByteBuffer buffer;
+	private byte[] array;
+	private int arrayOffset;
+
+	/**
+	 * The constructor takes the bytes between the position and the limit of
+	 * the buffer.
+	 *
+	 * @param buffer
+	 *            bytes of the X12 transaction
+	 */
+	ByteTokenizer(ByteBuffer buffer) {
+		super(buffer.position(), buffer.remaining());
+		setBuffer(buffer);
+	}
+
+	/**
+	 * Replaces the buffer being tokenized. Segments already created keep
+	 * the buffer they were created from.
+	 *
+	 * @param buffer
+	 *            bytes of the X12 transaction
+	 */
+	protected void setBuffer(ByteBuffer buffer) {
+		this.buffer = buffer;
+		if (buffer.hasArray()) {
+			this.array = buffer.array();
+			this.arrayOffset = buffer.arrayOffset();
+		} else {
+			this.array = null;
+			this.arrayOffset = 0;
+		}
+	}
+
+	@Override
+	protected char charAt(int index) {
+		return (char) (buffer.get(index) & 0xFF);
+	}
+
+	@Override
+	protected int indexOf(char c, int from, int to) {
+		if (c > 0xFF) {
+			return to;
+		}
+		byte b = (byte) c;
+		int i = from;
+		if (array != null) {
+			while (i < to && array[arrayOffset + i] != b) {
+				i++;
+			}
+		} else {
+			while (i < to && buffer.get(i) != b) {
+				i++;
+			}
+		}
+		return i;
+	}
+
+	@Override
+	protected String substring(int start, int end) {
+		return decode(buffer, start, end);
+	}
+
+	@Override
+	Segment newSegment(Context context) {
+		return new Segment(context, new ByteElements(buffer, copyStarts(), internElements()));
+	}
+
+	/**
+	 * Returns the bytes of the buffer between start (inclusive) and end
+	 * (exclusive) as a <code>String</code>.
+	 */
+	static String decode(ByteBuffer buffer, int start, int end) {
+		if (buffer.hasArray()) {
+			return new String(buffer.array(), buffer.arrayOffset() + start,
+					end - start, StandardCharsets.ISO_8859_1);
+		}
+		char[] chars = new char[end - start];
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = (char) (buffer.get(start + i) & 0xFF);
+		}
+		return new String(chars);
+	}
+}
@@ -0,0 +1,404 @@
+/*
+   Copyright [2011] [Prasad Balan]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.pb.x12;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parser that keeps the objects returned by another parser, to return them
+ * again when the same X12 transaction is parsed. The input is hashed with
+ * SHA-256 as it is read, and the objects of the recently parsed inputs are
+ * kept until their estimated size exceeds the size of the cache. The size of
+ * an object counts its input once and every element string, including those
+ * created later when the elements of a parsed segment are read. The least
+ * recently used objects are dropped first.
+ *
+ * Each call returns a new <code>X12</code> or <code>X12Simple</code> object
+ * with new loops, segments and context, the objects returned can be modified
+ * without changing the objects kept. The elements are shared with the object kept
+ * and copied the first time a segment is modified. Objects of other types
+ * are returned as they are and not kept.
+ *
+ * <pre>
+ * Parser parser = new CachingParser(new X12Parser(cf835), 64 * 1024 * 1024);
+ * X12 x12 = (X12) parser.parse(new File(&quot;835.txt&quot;));
+ * </pre>
+ *
+ * The parser can be shared by any number of threads if the parser it wraps
+ * can be.
+ *
+ * @author Prasad Balan
+ */
+public class CachingParser implements Parser {
+
+	private static final int BUFFER_SIZE = 8192;
+	private static final int LOOP_SIZE = 96;
+
+	/**
+	 * Largest number of bytes read from a stream, the largest array most
+	 * virtual machines allocate.
+	 */
+	static final int MAX_STREAM_SIZE = Integer.MAX_VALUE - 8;
+
+	private final Parser parser;
+	private final long maxSize;
+	private final Map<ByteBuffer, Entry> cache = new LinkedHashMap<ByteBuffer, Entry>(16, 0.75f, true);
+	private long size;
+
+	/**
+	 * The constructor takes the parser used to parse the inputs not in the
+	 * cache, and the size of the cache.
+	 *
+	 * @param parser
+	 *            Parser
+	 * @param maxSize
+	 *            the largest estimated number of bytes held by the objects
+	 *            kept
+	 */
+	public CachingParser(Parser parser, long maxSize) {
+		if (maxSize < 0) {
+			throw new IllegalArgumentException("Size: " + maxSize);
+		}
+		this.parser = parser;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * The method takes a X12 file and converts it into a X12 object. The file
+	 * is hashed as it is read through a small buffer, and parsed with
+	 * {@link Parser#parse(File)} of the parser it wraps when it is not in the
+	 * cache. The objects kept are the ones that parser returns: the objects
+	 * of <code>X12Parser</code> and <code>X12SimpleParser</code> are backed
+	 * by the mapped file, which should not be modified while they are kept.
+	 *
+	 * @param source
+	 *            a X12 file
+	 * @return the X12 object
+	 * @throws FormatException
+	 * @throws IOException
+	 */
+	@Override
+	public EDI parse(File source) throws FormatException, IOException {
+		MessageDigest digest = newDigest();
+		// streams are decoded differently, the same bytes have another key
+		digest.update((byte) 'F');
+		long length = 0;
+		FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			while (channel.read(buffer) != -1) {
+				buffer.flip();
+				length += buffer.remaining();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		} finally {
+			channel.close();
+		}
+		ByteBuffer key = ByteBuffer.wrap(digest.digest());
+		EDI edi = get(key);
+		if (edi != null) {
+			return edi;
+		}
+		return put(key, parser.parse(source), length);
+	}
+
+	/**
+	 * The method takes a X12 string and converts it into a X12 object.
+	 *
+	 * @param source
+	 *            String
+	 * @return the X12 object
+	 * @throws FormatException
+	 */
+	@Override
+	public EDI parse(String source) throws FormatException {
+		MessageDigest digest = newDigest();
+		digest.update((byte) 'S');
+		byte[] buffer = new byte[BUFFER_SIZE];
+		for (int i = 0; i < source.length();) {
+			int n = 0;
+			for (; n < buffer.length && i < source.length(); i++) {
+				char c = source.charAt(i);
+				buffer[n++] = (byte) (c >> 8);
+				buffer[n++] = (byte) c;
+			}
+			digest.update(buffer, 0, n);
+		}
+		ByteBuffer key = ByteBuffer.wrap(digest.digest());
+		EDI edi = get(key);
+		if (edi != null) {
+			return edi;
+		}
+		return put(key, parser.parse(source), 2L * source.length());
+	}
+
+	/**
+	 * The method takes a InputStream and converts it into a X12 object. The
+	 * stream is read into memory as it is hashed, and parsed from memory when
+	 * it is not in the cache. The stream is not closed.
+	 *
+	 * The buffer the stream is read into doubles as it fills, reading takes
+	 * up to twice the size of the stream. Streams larger than
+	 * {@link #MAX_STREAM_SIZE} bytes cannot be read, large inputs are better
+	 * parsed from a file with {@link #parse(File)}.
+	 *
+	 * @param source
+	 *            InputStream
+	 * @return the X12 object
+	 * @throws FormatException
+	 * @throws IOException
+	 *             if the stream cannot be read or is too large
+	 */
+	@Override
+	public EDI parse(InputStream source) throws FormatException, IOException {
+		return parse(source, MAX_STREAM_SIZE);
+	}
+
+	EDI parse(InputStream source, int maxSize) throws FormatException, IOException {
+		MessageDigest digest = newDigest();
+		digest.update((byte) 'B');
+		byte[] data = new byte[Math.min(BUFFER_SIZE, maxSize)];
+		int length = 0;
+		while (true) {
+			if (length == data.length) {
+				if (length == maxSize) {
+					if (source.read() != -1) {
+						throw new IOException("Stream is larger than " + maxSize + " bytes");
+					}
+					break;
+				}
+				data = Arrays.copyOf(data, (int) Math.min(2L * data.length, maxSize));
+			}
+			int n = source.read(data, length, data.length - length);
+			if (n == -1) {
+				break;
+			}
+			digest.update(data, length, n);
+			length += n;
+		}
+		ByteBuffer key = ByteBuffer.wrap(digest.digest());
+		EDI edi = get(key);
+		if (edi != null) {
+			return edi;
+		}
+		// the parsers read streams into chars
+		return put(key, parser.parse(new ByteArrayInputStream(data, 0, length)), 2L * length);
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns a copy of the object kept for the input, or null.
+	 */
+	private EDI get(ByteBuffer key) {
+		Entry entry;
+		synchronized (cache) {
+			entry = cache.get(key);
+		}
+		return entry == null ? null : copy(entry.edi);
+	}
+
+	/**
+	 * Keeps the object parsed from the input and returns a copy of it.
+	 */
+	private EDI put(ByteBuffer key, EDI edi, long sourceSize) {
+		if (!(edi instanceof X12) && !(edi instanceof X12Simple)) {
+			return edi;
+		}
+		// the object kept is not modified after this, the copies only read it
+		setReadOnly(edi);
+		EDI copy = copy(edi);
+		Entry entry = new Entry(edi, sourceSize + estimateSize(edi));
+		if (entry.size > maxSize) {
+			return copy;
+		}
+		synchronized (cache) {
+			Entry previous = cache.put(key, entry);
+			size += entry.size;
+			if (previous != null) {
+				size -= previous.size;
+			}
+			for (Iterator<Entry> it = cache.values().iterator(); size > maxSize;) {
+				size -= it.next().size;
+				it.remove();
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * Makes the elements of the segments of the object read only, so they
+	 * can be shared by the copies.
+	 */
+	private static void setReadOnly(EDI edi) {
+		if (edi instanceof X12Simple) {
+			for (Segment s : (X12Simple) edi) {
+				s.setReadOnly();
+			}
+			return;
+		}
+		LoopIterator walk = new LoopIterator((X12) edi);
+		int event;
+		while ((event = walk.step()) != LoopIterator.END) {
+			if (event == LoopIterator.ENTER) {
+				List<Segment> segments = walk.current().getSegments();
+				for (int i = 0; i < segments.size(); i++) {
+					segments.get(i).setReadOnly();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns a new object with the loops of the object and segments sharing
+	 * its elements. The loops and segments of the new object share a new
+	 * context.
+	 */
+	private static EDI copy(EDI edi) {
+		if (edi instanceof X12Simple) {
+			X12Simple x12 = (X12Simple) edi;
+			Context context = copy(x12.getContext());
+			X12Simple copy = new X12Simple(context);
+			for (Segment s : x12) {
+				copy.addSegment(s.share(context));
+			}
+			return copy;
+		}
+		Loop root = (X12) edi;
+		Context context = copy(root.getContext());
+		Loop copy = null;
+		LoopIterator walk = new LoopIterator(root);
+		int event;
+		while ((event = walk.step()) != LoopIterator.END) {
+			Loop loop = walk.current();
+			if (event == LoopIterator.EXIT) {
+				if (loop != root) {
+					copy = copy.getParent();
+				}
+				continue;
+			}
+			if (copy == null) {
+				copy = new X12(context);
+				copy.setName(loop.getName());
+			} else {
+				Loop child = new Loop(context, loop.getName());
+				copy.addChild(copy.getLoops().size(), child);
+				copy = child;
+			}
+			List<Segment> segments = loop.getSegments();
+			for (int i = 0; i < segments.size(); i++) {
+				copy.addSegment(segments.get(i).share(context));
+			}
+		}
+		return (X12) copy;
+	}
+
+	private static Context copy(Context context) {
+		return new Context(context.getSegmentSeparator(), context.getElementSeparator(),
+				context.getCompositeElementSeparator());
+	}
+
+	/**
+	 * Returns an estimate of the bytes held by the loops and segments of the
+	 * object.
+	 */
+	private static long estimateSize(EDI edi) {
+		long size = 0;
+		if (edi instanceof X12Simple) {
+			for (Segment s : (X12Simple) edi) {
+				size += s.estimateSize();
+			}
+			return size;
+		}
+		LoopIterator walk = new LoopIterator((X12) edi);
+		int event;
+		while ((event = walk.step()) != LoopIterator.END) {
+			if (event == LoopIterator.ENTER) {
+				List<Segment> segments = walk.current().getSegments();
+				size += LOOP_SIZE + 8L * segments.size();
+				for (int i = 0; i < segments.size(); i++) {
+					size += segments.get(i).estimateSize();
+				}
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the number of objects kept.
+	 *
+	 * @return int
+	 */
+	public int size() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	/**
+	 * Returns the estimated number of bytes held by the objects kept.
+	 *
+	 * @return long
+	 */
+	public long getSize() {
+		synchronized (cache) {
+			return size;
+		}
+	}
+
+	/**
+	 * Drops the objects kept.
+	 */
+	public void clear() {
+		synchronized (cache) {
+			cache.clear();
+			size = 0;
+		}
+	}
+
+	private static final class Entry {
+
+		final EDI edi;
+		final long size;
+
+		Entry(EDI edi, long size) {
+			this.edi = edi;
+			this.size = size;
+		}
+	}
+}
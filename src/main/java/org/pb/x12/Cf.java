@@ -183,6 +183,17 @@ public class Cf {
 		return segmentQualPos;
 	}
 
+	/**
+	 * Compiles the hierarchy under this Cf into hash tables keyed by segment
+	 * id, used by the parsers to match segments to loops. The Cf hierarchy
+	 * should not be changed after it is compiled.
+	 * 
+	 * @return CompiledCf
+	 */
+	public CompiledCf compile() {
+		return new CompiledCf(this);
+	}
+
 	public void setParent(Cf cf) {
 		this.parent = cf;
 	}
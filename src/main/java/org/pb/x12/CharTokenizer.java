@@ -0,0 +1,148 @@
+/*
+   Copyright [2011] [Prasad Balan]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.pb.x12;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Tokenizer over a X12 transaction held in a <code>char[]</code>. The
+ * characters can also be read from a <code>Reader</code> into a buffer that
+ * is refilled as the segments are read. The buffer only grows when a segment
+ * does not fit in it, so the memory used does not depend on the size of the
+ * transaction.
+ *
+ * Segments created from a <code>char[]</code> are backed by the array and
+ * only create the elements that are read. Segments created from a
+ * <code>Reader</code> copy their characters out of the buffer, since the
+ * buffer is reused.
+ *
+ * @author Prasad Balan
+ */
+final class CharTokenizer extends Tokenizer {
+
+	static final int BUFFER_SIZE = 8192;
+
+	private char[] buffer;
+	private Reader reader;
+	private boolean refilled;
+
+	/**
+	 * The constructor takes the characters to tokenize.
+	 *
+	 * @param buffer
+	 *            characters of the X12 transaction, referenced by the
+	 *            segments created
+	 * @param offset
+	 *            position of the first character
+	 * @param length
+	 *            number of characters
+	 */
+	CharTokenizer(char[] buffer, int offset, int length) {
+		super(offset, length);
+		this.buffer = buffer;
+	}
+
+	/**
+	 * The constructor takes the reader to tokenize. Characters are read until
+	 * the ISA segment is in the buffer.
+	 *
+	 * @param reader
+	 *            source
+	 * @param bufferSize
+	 *            initial size of the buffer
+	 * @throws IOException
+	 */
+	CharTokenizer(Reader reader, int bufferSize) throws IOException {
+		this(new char[Math.max(bufferSize, 1)], 0, 0);
+		this.reader = reader;
+		this.refilled = true;
+		try {
+			while (end < X12Parser.SIZE && fill()) {
+				// read the ISA segment
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	@Override
+	protected boolean fill() {
+		if (reader == null) {
+			return false;
+		}
+		int length = end - pos;
+		if (length == buffer.length) {
+			char[] larger = new char[buffer.length * 2];
+			System.arraycopy(buffer, pos, larger, 0, length);
+			buffer = larger;
+		} else if (pos > 0) {
+			System.arraycopy(buffer, pos, buffer, 0, length);
+		}
+		pos = 0;
+		end = length;
+		int n;
+		try {
+			n = reader.read(buffer, end, buffer.length - end);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		if (n == -1) {
+			reader = null;
+			return false;
+		}
+		end += n;
+		return true;
+	}
+
+	@Override
+	Segment newSegment(Context context) {
+		int[] starts = copyStarts();
+		String[] elements = internElements();
+		if (!refilled) {
+			return new Segment(context, new CharElements(buffer, starts, elements));
+		}
+		int from = starts[0];
+		int to = Math.max(from, starts[starts.length - 1] - 1);
+		for (int i = 0; i < starts.length; i++) {
+			starts[i] -= from;
+		}
+		return new Segment(context, new CharElements(Arrays.copyOfRange(buffer, from, to), starts,
+				elements));
+	}
+
+	@Override
+	protected char charAt(int index) {
+		return buffer[index];
+	}
+
+	@Override
+	protected int indexOf(char c, int from, int to) {
+		int i = from;
+		while (i < to && buffer[i] != c) {
+			i++;
+		}
+		return i;
+	}
+
+	@Override
+	protected String substring(int start, int end) {
+		return new String(buffer, start, end - start);
+	}
+}
@@ -0,0 +1,252 @@
+/*
+   Copyright [2011] [Prasad Balan]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.pb.x12;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The <code>CompiledCf</code> class is an immutable form of a <code>Cf</code>
+ * hierarchy, used to find the loop a segment starts. It is created with
+ * {@link Cf#compile()}.
+ * 
+ * For every loop of the hierarchy the segment ids of the loops that can
+ * start from it are held in a hash table. The table of a loop also holds the
+ * loops of its ancestors, in the order they are checked, so a segment is
+ * matched with one lookup of its segment id followed by a check of the
+ * qualifiers of the loops sharing the id. Qualifiers are compared in place,
+ * no <code>String</code> is created for the segment id or the qualifier.
+ * 
+ * Changes made to the <code>Cf</code> hierarchy after it is compiled are not
+ * seen by the <code>CompiledCf</code>.
+ * 
+ * @author Prasad Balan
+ */
+public final class CompiledCf {
+
+	/**
+	 * Qualifier sets up to this size are compared one at a time.
+	 */
+	private static final int LINEAR_QUALS = 4;
+
+	private final Cf cf;
+	private final Node root;
+	private final String[] strings;
+
+	/**
+	 * The constructor compiles the hierarchy under the Cf.
+	 * 
+	 * @param cf
+	 *            the root of the Cf hierarchy
+	 */
+	CompiledCf(Cf cf) {
+		this.cf = cf;
+		this.root = createNodes(cf);
+		List<String> strings = new ArrayList<String>();
+		for (Node node : preorder(root)) {
+			buildTable(node);
+			addStrings(node, strings);
+		}
+		this.strings = strings.toArray(new String[0]);
+	}
+
+	/**
+	 * Returns the root of the <code>Cf</code> hierarchy.
+	 * 
+	 * @return Cf
+	 */
+	public Cf getCf() {
+		return cf;
+	}
+
+	Node root() {
+		return root;
+	}
+
+	/**
+	 * Returns the segment ids and the qualifiers of the hierarchy, seeded
+	 * into the <code>InternTable</code> of a parse.
+	 */
+	String[] strings() {
+		return strings;
+	}
+
+	/**
+	 * Creates the nodes of the hierarchy, one level at a time, and returns
+	 * the root. A Cf that is the child of more than one loop, such as the
+	 * 837 loop 2300 under 2000B and 2000C, gets a node under each of them.
+	 */
+	private static Node createNodes(Cf cf) {
+		Node root = new Node(cf, null);
+		Deque<Node> pending = new ArrayDeque<Node>();
+		pending.add(root);
+		while (!pending.isEmpty()) {
+			Node node = pending.poll();
+			for (Cf child : node.cf.childList()) {
+				Node n = new Node(child, node);
+				node.children.add(n);
+				pending.add(n);
+			}
+		}
+		return root;
+	}
+
+	/**
+	 * Returns the nodes of the hierarchy in depth first order.
+	 */
+	static List<Node> preorder(Node root) {
+		List<Node> nodes = new ArrayList<Node>();
+		Deque<Node> pending = new ArrayDeque<Node>();
+		pending.push(root);
+		while (!pending.isEmpty()) {
+			Node node = pending.pop();
+			nodes.add(node);
+			for (int i = node.children.size() - 1; i >= 0; i--) {
+				pending.push(node.children.get(i));
+			}
+		}
+		return nodes;
+	}
+
+	private static void addStrings(Node node, List<String> strings) {
+		if (node.cf.getSegment() != null) {
+			strings.add(node.cf.getSegment());
+		}
+		if (node.cf.getSegmentQuals() != null) {
+			strings.addAll(Arrays.asList(node.cf.getSegmentQuals()));
+		}
+	}
+
+	/**
+	 * Builds the table of the node. The candidates of
+	 * a segment id are kept in the order <code>X12Parser</code> has always
+	 * checked them: the child loops of the node first, then those of its
+	 * parent and so on, each in the order of <code>childList()</code>.
+	 */
+	private static void buildTable(Node node) {
+		Map<String, List<Candidate>> candidates = new HashMap<String, List<Candidate>>();
+		for (Node n = node; n != null; n = n.parent) {
+			for (Node child : n.children) {
+				String segment = child.cf.getSegment();
+				if (segment == null) {
+					continue;
+				}
+				List<Candidate> list = candidates.get(segment);
+				if (list == null) {
+					list = new ArrayList<Candidate>();
+					candidates.put(segment, list);
+				}
+				list.add(new Candidate(child));
+			}
+		}
+		Map<String, Candidate[]> table = new HashMap<String, Candidate[]>();
+		for (Map.Entry<String, List<Candidate>> entry : candidates.entrySet()) {
+			table.put(entry.getKey(), entry.getValue().toArray(new Candidate[0]));
+		}
+		node.table = new IdTable<Candidate[]>(table);
+	}
+
+	/**
+	 * Returns the node of the loop the current segment of the tokenizer
+	 * starts, checking the child loops of the node and then of its ancestors.
+	 * 
+	 * @param current
+	 *            node of the current loop
+	 * @param tokenizer
+	 *            positioned on the segment
+	 * @return Node, or null if the segment does not start a loop
+	 */
+	static Node match(Node current, Tokenizer tokenizer) {
+		Candidate[] candidates = current.table.get(tokenizer, 0);
+		if (candidates == null) {
+			return null;
+		}
+		for (Candidate candidate : candidates) {
+			if (candidate.matches(tokenizer)) {
+				return candidate.node;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * A compiled loop configuration.
+	 */
+	static final class Node {
+		final Cf cf;
+		final Node parent;
+		final int depth;
+		private final List<Node> children = new ArrayList<Node>();
+		private IdTable<Candidate[]> table;
+
+		Node(Cf cf, Node parent) {
+			this.cf = cf;
+			this.parent = parent;
+			this.depth = parent == null ? 0 : parent.depth + 1;
+		}
+
+		List<Node> children() {
+			return children;
+		}
+	}
+
+	/**
+	 * A loop that can start from a segment id, with its qualifiers.
+	 */
+	private static final class Candidate {
+		private final Node node;
+		private final int qualPos;
+		private final String[] quals;
+		private final IdTable<Boolean> qualSet;
+
+		Candidate(Node node) {
+			Cf cf = node.cf;
+			this.node = node;
+			this.qualPos = cf.getSegmentQualPos() == null ? -1 : cf.getSegmentQualPos();
+			this.quals = cf.getSegmentQuals() == null ? new String[0] : cf.getSegmentQuals().clone();
+			if (quals.length > LINEAR_QUALS) {
+				Map<String, Boolean> set = new HashMap<String, Boolean>();
+				for (String qual : quals) {
+					set.put(qual, Boolean.TRUE);
+				}
+				this.qualSet = new IdTable<Boolean>(set);
+			} else {
+				this.qualSet = null;
+			}
+		}
+
+		boolean matches(Tokenizer tokenizer) {
+			if (qualPos < 0) {
+				return true;
+			}
+			if (qualSet != null) {
+				return qualSet.get(tokenizer, qualPos) != null;
+			}
+			for (String qual : quals) {
+				if (tokenizer.elementEquals(qualPos, qual)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,57 @@
+/*
+   Copyright [2011] [Prasad Balan]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.pb.x12;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Builds the <code>String</code> returned by <code>toString()</code>,
+ * <code>toXML()</code> and <code>toJSON()</code> from the method that writes
+ * it to an <code>Appendable</code>.
+ *
+ * @author Prasad Balan
+ */
+final class Dump {
+
+	/**
+	 * Writes to an <code>Appendable</code>.
+	 */
+	interface Writer {
+		void write(Appendable out) throws IOException;
+	}
+
+	private Dump() {
+	}
+
+	/**
+	 * Returns what the writer writes, as a <code>String</code>.
+	 *
+	 * @param writer
+	 *            Writer
+	 * @return String
+	 */
+	static String toString(Writer writer) {
+		StringBuilder dump = new StringBuilder();
+		try {
+			writer.write(dump);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e); // not thrown by StringBuilder
+		}
+		return dump.toString();
+	}
+}
@@ -0,0 +1,107 @@
+/*
+   Copyright [2011] [Prasad Balan]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.pb.x12;
+
+import java.util.Map;
+
+/**
+ * Immutable open addressing hash table keyed by <code>String</code>. An
+ * element of the segment a <code>Tokenizer</code> is positioned on can be
+ * looked up without creating a <code>String</code> for it.
+ * 
+ * @author Prasad Balan
+ */
+final class IdTable<V> {
+
+	private final String[] keys;
+	private final int[] hashes;
+	private final Object[] values;
+	private final int mask;
+
+	/**
+	 * The constructor copies the entries of the map.
+	 * 
+	 * @param entries
+	 *            Map
+	 */
+	IdTable(Map<String, V> entries) {
+		int capacity = 2;
+		while (capacity < entries.size() * 2) {
+			capacity <<= 1;
+		}
+		this.keys = new String[capacity];
+		this.hashes = new int[capacity];
+		this.values = new Object[capacity];
+		this.mask = capacity - 1;
+		for (Map.Entry<String, V> entry : entries.entrySet()) {
+			int hash = entry.getKey().hashCode();
+			int i = spread(hash) & mask;
+			while (keys[i] != null) {
+				i = (i + 1) & mask;
+			}
+			keys[i] = entry.getKey();
+			hashes[i] = hash;
+			values[i] = entry.getValue();
+		}
+	}
+
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Returns the value of the key equal to the element at the specified
+	 * position in the current segment of the tokenizer.
+	 * 
+	 * @param tokenizer
+	 *            Tokenizer
+	 * @param index
+	 *            position of the element
+	 * @return the value, or null
+	 */
+	@SuppressWarnings("unchecked")
+	V get(Tokenizer tokenizer, int index) {
+		if (index >= tokenizer.size()) {
+			return null;
+		}
+		int hash = tokenizer.elementHash(index);
+		for (int i = spread(hash) & mask; keys[i] != null; i = (i + 1) & mask) {
+			if (hashes[i] == hash && tokenizer.elementEquals(index, keys[i])) {
+				return (V) values[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the value of the key.
+	 * 
+	 * @param key
+	 *            String
+	 * @return the value, or null
+	 */
+	@SuppressWarnings("unchecked")
+	V get(String key) {
+		int hash = key.hashCode();
+		for (int i = spread(hash) & mask; keys[i] != null; i = (i + 1) & mask) {
+			if (hashes[i] == hash && key.equals(keys[i])) {
+				return (V) values[i];
+			}
+		}
+		return null;
+	}
+}
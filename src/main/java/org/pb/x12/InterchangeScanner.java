@@ -0,0 +1,129 @@
+/*
+   Copyright [2011] [Prasad Balan]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.pb.x12;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Finds the ISA segments where the interchanges of a X12 file start, and the
+ * segments where the transaction sets of an interchange start. Only the
+ * segment separators are looked at, the elements are not tokenized. Each
+ * interchange is scanned with the segment separator of its own ISA segment.
+ * 
+ * @author Prasad Balan
+ */
+final class InterchangeScanner {
+
+	private InterchangeScanner() {
+	}
+
+	/**
+	 * Adds the positions of the interchanges between from and to. The first
+	 * interchange starts at from, each of the others starts at a ISA segment
+	 * following a segment separator and an optional CR/LF or LF.
+	 * 
+	 * @param buffer
+	 *            bytes of the X12 file
+	 * @param from
+	 *            position of the first ISA segment
+	 * @param to
+	 *            end of the bytes to scan
+	 * @param starts
+	 *            the positions found
+	 */
+	static void scan(ByteBuffer buffer, int from, int to, List<Integer> starts) {
+		int p = from;
+		while (p < to) {
+			starts.add(p);
+			if (to - p < X12Parser.SIZE) {
+				return;
+			}
+			byte separator = buffer.get(p + X12Parser.POS_SEGMENT);
+			int next = to;
+			for (int i = p + X12Parser.SIZE; i < to; i++) {
+				if (buffer.get(i) != separator) {
+					continue;
+				}
+				int s = i + 1;
+				while (s < to && (buffer.get(s) == '\r' || buffer.get(s) == '\n')) {
+					s++;
+				}
+				if (isISA(buffer, s, to)) {
+					next = s;
+					break;
+				}
+			}
+			p = next;
+		}
+	}
+
+	/**
+	 * Adds the positions of the segments with the segment id between from
+	 * and to. A segment starts at from or after a segment separator and an
+	 * optional CR/LF or LF.
+	 * 
+	 * @param buffer
+	 *            bytes of the X12 transaction
+	 * @param from
+	 *            position of the first segment
+	 * @param to
+	 *            end of the bytes to scan
+	 * @param context
+	 *            the delimiters of the interchange
+	 * @param id
+	 *            the segment id, e.g. ST
+	 * @param starts
+	 *            the positions found
+	 */
+	static void scan(ByteBuffer buffer, int from, int to, Context context,
+			String id, List<Integer> starts) {
+		byte separator = (byte) context.getSegmentSeparator().charValue();
+		int s = from;
+		while (s < to) {
+			if (isSegment(buffer, s, to, id, context.getElementSeparator())) {
+				starts.add(s);
+			}
+			while (s < to && buffer.get(s) != separator) {
+				s++;
+			}
+			s++;
+			while (s < to && (buffer.get(s) == '\r' || buffer.get(s) == '\n')) {
+				s++;
+			}
+		}
+	}
+
+	private static boolean isSegment(ByteBuffer buffer, int i, int to,
+			String id, char elementSeparator) {
+		int length = id.length();
+		if (i + length >= to || buffer.get(i + length) != (byte) elementSeparator) {
+			return false;
+		}
+		for (int k = 0; k < length; k++) {
+			if (buffer.get(i + k) != (byte) id.charAt(k)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static boolean isISA(ByteBuffer buffer, int i, int to) {
+		return i + 3 <= to && buffer.get(i) == 'I' && buffer.get(i + 1) == 'S'
+				&& buffer.get(i + 2) == 'A';
+	}
+}
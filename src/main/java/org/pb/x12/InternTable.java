@@ -0,0 +1,195 @@
+/*
+   Copyright [2011] [Prasad Balan]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.pb.x12;
+
+/**
+ * Bounded open addressing table of the short element values of a parse:
+ * segment ids, qualifiers, codes. An element equal to a value in the table is
+ * returned as the <code>String</code> already in the table, so the segments of
+ * a parsed tree share one instance of each value.
+ *
+ * The table is seeded with the segment ids and qualifiers of the Cf
+ * hierarchy. The table grows until each of them has a slot, they are never
+ * replaced, the segment id of a segment that
+ * starts a loop is the same instance as <code>Cf.getSegment()</code>. Other
+ * values are added as the segments are parsed, and replace an older value
+ * when the slots they hash to are full.
+ *
+ * The values are looked up when the tokenizer creates a segment, the table is
+ * not referenced by the parsed tree and is dropped at the end of the parse.
+ * The table can be used by the threads of a parallel parse without locking.
+ * Under contention it may return equal but distinct instances, never a wrong
+ * value.
+ *
+ * @author Prasad Balan
+ */
+final class InternTable {
+
+	/**
+	 * Default number of slots.
+	 */
+	static final int SIZE = 4096;
+
+	/**
+	 * Longest element value kept in the table.
+	 */
+	static final int MAX_LENGTH = 6;
+
+	/**
+	 * Number of slots looked at for a value.
+	 */
+	private static final int PROBES = 4;
+
+	/**
+	 * Largest number of slots the table grows to for the values it keeps.
+	 */
+	private static final int MAX_SIZE = 1 << 20;
+
+	private final String[] strings;
+	private final boolean[] pinned;
+	private final int mask;
+
+	/**
+	 * The constructor takes the number of slots and the values that are never
+	 * replaced.
+	 *
+	 * @param size
+	 *            number of slots, rounded up to a power of two, and doubled
+	 *            until the values kept fit
+	 * @param values
+	 *            values kept for the whole parse, can be null
+	 * @throws IllegalArgumentException
+	 *             if the values have hashes that collide in any table size
+	 */
+	InternTable(int size, String[] values) {
+		int capacity = 16;
+		while (capacity < size) {
+			capacity <<= 1;
+		}
+		while (!fits(values, capacity)) {
+			if (capacity >= MAX_SIZE) {
+				throw new IllegalArgumentException("Too many values with colliding hashes");
+			}
+			capacity <<= 1;
+		}
+		this.strings = new String[capacity];
+		this.pinned = new boolean[capacity];
+		this.mask = capacity - 1;
+		if (values != null) {
+			for (String value : values) {
+				pin(value, strings, mask);
+			}
+		}
+		for (int i = 0; i < capacity; i++) {
+			pinned[i] = strings[i] != null;
+		}
+	}
+
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Returns true if each value has a slot in a table of the capacity.
+	 */
+	private static boolean fits(String[] values, int capacity) {
+		if (values == null) {
+			return true;
+		}
+		String[] strings = new String[capacity];
+		for (String value : values) {
+			if (!pin(value, strings, capacity - 1)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Puts the value in the first free slot it hashes to, returns false if
+	 * the slots are taken by other values.
+	 */
+	private static boolean pin(String value, String[] strings, int mask) {
+		int slot = spread(value.hashCode()) & mask;
+		for (int p = 0; p < PROBES; p++, slot = (slot + 1) & mask) {
+			if (strings[slot] == null) {
+				strings[slot] = value;
+				return true;
+			}
+			if (strings[slot].equals(value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the element value between start (inclusive) and end
+	 * (exclusive) in the source. Values longer than {@link #MAX_LENGTH} are
+	 * created without looking at the table.
+	 *
+	 * @param source
+	 *            Tokenizer
+	 * @param start
+	 *            position of the first character
+	 * @param end
+	 *            position after the last character
+	 * @return String
+	 */
+	String intern(Tokenizer source, int start, int end) {
+		int length = end - start;
+		if (length > MAX_LENGTH) {
+			return source.substring(start, end);
+		}
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + source.charAt(i);
+		}
+		int slot = spread(hash) & mask;
+		int free = -1;
+		for (int p = 0; p < PROBES; p++, slot = (slot + 1) & mask) {
+			String s = strings[slot];
+			if (s == null) {
+				free = slot;
+				break;
+			}
+			if (equals(s, source, start, length)) {
+				return s;
+			}
+			if (free < 0 && !pinned[slot]) {
+				free = slot;
+			}
+		}
+		String s = source.substring(start, end);
+		if (free >= 0) {
+			strings[free] = s;
+		}
+		return s;
+	}
+
+	private static boolean equals(String s, Tokenizer source, int start, int length) {
+		if (s.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (s.charAt(i) != source.charAt(start + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
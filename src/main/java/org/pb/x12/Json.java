@@ -0,0 +1,79 @@
+/*
+   Copyright [2011] [Prasad Balan]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.pb.x12;
+
+import java.io.IOException;
+
+/**
+ * Writes JSON values for <code>Segment.writeJSON()</code>,
+ * <code>Loop.writeJSON()</code> and <code>X12Simple.writeJSON()</code>.
+ *
+ * @author Prasad Balan
+ */
+final class Json {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private Json() {
+	}
+
+	/**
+	 * Writes the <code>String</code> as a JSON string, or null.
+	 *
+	 * @param out
+	 *            Appendable
+	 * @param s
+	 *            String, can be null
+	 * @throws IOException
+	 */
+	static void string(Appendable out, String s) throws IOException {
+		if (s == null) {
+			out.append("null");
+			return;
+		}
+		out.append('"');
+		int start = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c >= 0x20 && c != '"' && c != '\\') {
+				continue;
+			}
+			out.append(s, start, i);
+			start = i + 1;
+			switch (c) {
+			case '"':
+				out.append("\\\"");
+				break;
+			case '\\':
+				out.append("\\\\");
+				break;
+			case '\n':
+				out.append("\\n");
+				break;
+			case '\r':
+				out.append("\\r");
+				break;
+			case '\t':
+				out.append("\\t");
+				break;
+			default:
+				out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xf]);
+			}
+		}
+		out.append(s, start, s.length()).append('"');
+	}
+}
@@ -16,9 +16,20 @@
  */
 package org.pb.x12;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.ArrayList;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * The Loop class is the representation of an Loop in a ANSI X12
@@ -34,10 +45,13 @@ public class Loop implements Iterable<Segment> {
 	private static final long serialVersionUID = 1L;
 	private Context context;
 	private String name;
-	private List<Segment> segments = new ArrayList<Segment>();
-	private List<Loop> loops = new ArrayList<Loop>();
+	private List<Segment> segments = new SegmentList(this::invalidate);
+	private List<Loop> loops = new ChildList();
 	private Loop parent;
 	private int depth; // used to debug
+	private volatile Map<String, List<Loop>> loopIndex;
+	private volatile Map<String, List<Segment>> segmentIndex;
+	private boolean indexed; // the loop or a parent may hold an index
 
 	/**
 	 * The constructor takes a context object.
@@ -193,15 +207,7 @@ public class Loop implements Iterable<Segment> {
 	 * @return boolean
 	 */
 	public boolean hasLoop(String name) {
-		for (Loop l : this.childList()) {
-			if (name.equals(l.getName())) {
-				return true;
-			}
-			if (l.hasLoop(name)) {
-				return true;
-			}
-		}
-		return false;
+		return loopIndex().containsKey(name);
 	}
 
 	/**
@@ -213,41 +219,167 @@ public class Loop implements Iterable<Segment> {
 	 * @return List<Loop>
 	 */
 	public List<Loop> findLoop(String name) {
-		List<Loop> foundLoops = new ArrayList<Loop>();
-		for (Loop l : this.childList()) {
-			if (name.equals(l.getName())) {
-				foundLoops.add(l);
-			}
-			List<Loop> moreLoops = l.findLoop(name);
-			if (moreLoops.size() > 0) {
-				foundLoops.addAll(moreLoops);
+		List<Loop> found = loopIndex().get(name);
+		return found == null ? new ArrayList<Loop>() : new ArrayList<Loop>(found);
+	}
+
+	/**
+	 * Returns the child loops of the complete child hierarchy by name, in the
+	 * order they appear in the transaction. The index is built the first time
+	 * a loop is looked up and dropped when a loop of the hierarchy changes.
+	 * 
+	 * @return Map
+	 */
+	private Map<String, List<Loop>> loopIndex() {
+		Map<String, List<Loop>> index = loopIndex;
+		if (index == null) {
+			index = new HashMap<String, List<Loop>>();
+			addToIndex(index, this);
+			loopIndex = index;
+		}
+		return index;
+	}
+
+	private static void addToIndex(Map<String, List<Loop>> index, Loop loop) {
+		loop.indexed = true;
+		for (LoopIterator it = new LoopIterator(loop, null); it.hasNext();) {
+			Loop l = it.next();
+			l.indexed = true;
+			List<Loop> named = index.get(l.name);
+			if (named == null) {
+				named = new ArrayList<Loop>();
+				index.put(l.name, named);
 			}
+			named.add(l);
+		}
+	}
+
+	/**
+	 * Drops the loop and segment indexes of the loop and its parents, after
+	 * the child hierarchy or the segments have changed. The loops of a
+	 * hierarchy that has never been searched are not marked as indexed, so
+	 * building a hierarchy does not walk up to its root for each change.
+	 */
+	private void invalidate() {
+		if (!indexed) {
+			return;
+		}
+		for (Loop l = this; l != null; l = l.parent) {
+			l.loopIndex = null;
+			l.segmentIndex = null;
 		}
-		return foundLoops;
 	}
 
 	/**
 	 * Get the segment in the X12 transaction It will check the current loop and
-	 * the complete child hierarchy.
+	 * the complete child hierarchy. The segments are looked up in an index by
+	 * segment id, built on the first call and dropped when a segment or a
+	 * loop of the hierarchy is added, removed or replaced. A segment whose id
+	 * is changed in place is found again once it is set with
+	 * <code>setSegment()</code>.
 	 * 
 	 * @param name
 	 *            name of a segment
 	 * @return List<Segment>
 	 */
 	public List<Segment> findSegment(String name) {
-		List<Segment> foundSegments = new ArrayList<Segment>();
-		for (Segment s : this.segments) {
-			if (name.equals(s.getElement(0))) {
-				foundSegments.add(s);
-			}
+		Map<String, List<Segment>> index = segmentIndex;
+		if (index == null) {
+			index = new HashMap<String, List<Segment>>();
+			addSegmentsToIndex(index, this);
+			segmentIndex = index;
+		}
+		return SegmentList.find(index, name);
+	}
+
+	private static void addSegmentsToIndex(Map<String, List<Segment>> index, Loop loop) {
+		loop.indexed = true;
+		SegmentList.index(index, loop.segments);
+		for (LoopIterator it = new LoopIterator(loop, null); it.hasNext();) {
+			Loop l = it.next();
+			l.indexed = true;
+			SegmentList.index(index, l.segments);
 		}
-		for (Loop l : this.childList()) {
-			List<Segment> moreSegments = l.findSegment(name);
-			if (moreSegments.size() > 0) {
-				foundSegments.addAll(moreSegments);
+	}
+
+	/**
+	 * Visits the loop, its segments and the complete child hierarchy in the
+	 * order they appear in the X12 transaction, see {@link LoopVisitor}. No
+	 * list is created and the hierarchy is walked without recursion, so its
+	 * depth is not limited by the stack.
+	 * 
+	 * @param visitor
+	 *            LoopVisitor
+	 * @return false if the visitor stopped the traversal
+	 */
+	public boolean accept(LoopVisitor visitor) {
+		LoopIterator walk = new LoopIterator(this);
+		int event;
+		while ((event = walk.step()) != LoopIterator.END) {
+			Loop loop = walk.current();
+			if (event == LoopIterator.EXIT) {
+				if (!visitor.exitLoop(loop)) {
+					return false;
+				}
+				continue;
+			}
+			if (!visitor.enterLoop(loop)) {
+				return false;
+			}
+			List<Segment> segments = loop.segments;
+			for (int i = 0; i < segments.size(); i++) {
+				if (!visitor.visitSegment(segments.get(i))) {
+					return false;
+				}
 			}
 		}
-		return foundSegments;
+		return true;
+	}
+
+	/**
+	 * Returns the segments of the current loop and the complete child
+	 * hierarchy, in the order they appear in the X12 transaction. The
+	 * hierarchy is walked as the segments are read, no list is built.
+	 * 
+	 * @return Iterable<Segment>
+	 */
+	public Iterable<Segment> segmentsDeep() {
+		return () -> new LoopIterator.Segments(this);
+	}
+
+	/**
+	 * Returns the segments of {@link #segmentsDeep()} as a sequential
+	 * <code>Stream</code>.
+	 * 
+	 * @return Stream<Segment>
+	 */
+	public Stream<Segment> segmentStream() {
+		return StreamSupport.stream(segmentsDeep().spliterator(), false);
+	}
+
+	/**
+	 * Returns the loops of the complete child hierarchy with the name, in the
+	 * order they appear in the X12 transaction. The hierarchy is walked as
+	 * the loops are read, no list is built.
+	 * 
+	 * @param name
+	 *            name of a loop, null for all the loops
+	 * @return Iterable<Loop>
+	 */
+	public Iterable<Loop> loopsNamed(String name) {
+		return () -> new LoopIterator(this, name);
+	}
+
+	/**
+	 * Returns the loops of {@link #loopsNamed(String)} as a sequential
+	 * <code>Stream</code>.
+	 * 
+	 * @param name
+	 *            name of a loop
+	 * @return Stream<Loop>
+	 */
+	public Stream<Loop> loopStream(String name) {
+		return StreamSupport.stream(loopsNamed(name).spliterator(), false);
 	}
 
 	/**
@@ -359,10 +491,9 @@ public class Loop implements Iterable<Segment> {
 	 * @return size
 	 */
 	public int size() {
-		int size = 0;
-		size = this.segments.size();
-		for (Loop l : this.childList()) {
-			size += l.size();
+		int size = this.segments.size();
+		for (LoopIterator it = new LoopIterator(this, null); it.hasNext();) {
+			size += it.next().segments.size();
 		}
 		return size;
 	}
@@ -472,6 +603,9 @@ public class Loop implements Iterable<Segment> {
 	 */
 	public void setName(String name) {
 		this.name = name;
+		if (parent != null) {
+			parent.invalidate();
+		}
 	}
 
 	/**
@@ -492,15 +626,58 @@ public class Loop implements Iterable<Segment> {
 	 * @return
 	 */
 	public String toString(boolean bRemoveTrailingEmptyElements) {
-		StringBuilder dump = new StringBuilder();
-		for (Segment s : this.segments) {
-			dump.append(s.toString(bRemoveTrailingEmptyElements));
-			dump.append(context.getSegmentSeparator());
-		}
-		for (Loop l : this.childList()) {
-			dump.append(l.toString(bRemoveTrailingEmptyElements));
+		return Dump.toString(out -> writeTo(out, bRemoveTrailingEmptyElements));
+	}
+
+	/**
+	 * Writes the Loop in X12 format, the same as {@link #toString()}. The
+	 * segments and elements are written one at a time, the X12 transaction is
+	 * not built in memory.
+	 * 
+	 * @param out
+	 *            Appendable
+	 * @throws IOException
+	 */
+	public void writeTo(Appendable out) throws IOException {
+		writeTo(out, false);
+	}
+
+	/**
+	 * Writes the Loop in X12 format, the same as {@link #toString(boolean)}.
+	 * 
+	 * @param out
+	 *            Appendable
+	 * @param bRemoveTrailingEmptyElements
+	 * @throws IOException
+	 */
+	public void writeTo(Appendable out, boolean bRemoveTrailingEmptyElements) throws IOException {
+		LoopIterator walk = new LoopIterator(this);
+		int event;
+		while ((event = walk.step()) != LoopIterator.END) {
+			if (event == LoopIterator.ENTER) {
+				Loop loop = walk.current();
+				char separator = loop.context.getSegmentSeparator();
+				for (Segment s : loop.segments) {
+					s.writeTo(out, bRemoveTrailingEmptyElements);
+					out.append(separator);
+				}
+			}
 		}
-		return dump.toString();
+	}
+
+	/**
+	 * Writes the Loop in X12 format to the stream. The characters are written
+	 * as ISO-8859-1, the charset <code>X12Parser.parse(ByteBuffer)</code>
+	 * reads, through a buffer. The stream is flushed but not closed.
+	 * 
+	 * @param out
+	 *            OutputStream
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.ISO_8859_1));
+		writeTo(writer, false);
+		writer.flush();
 	}
 
 	/**
@@ -521,16 +698,115 @@ public class Loop implements Iterable<Segment> {
 	 * @return
 	 */
 	public String toXML(boolean bRemoveTrailingEmptyElements) {
-		StringBuilder dump = new StringBuilder();
-		dump.append("<LOOP NAME=\"").append(this.name).append("\">");
-		for (Segment s : this.segments) {
-			dump.append(s.toXML(bRemoveTrailingEmptyElements));
+		return Dump.toString(out -> writeXML(out, bRemoveTrailingEmptyElements));
+	}
+
+	/**
+	 * Writes the Loop in XML format, the same as {@link #toXML()}. The loops
+	 * and segments are written one at a time, the XML is not built in memory.
+	 * 
+	 * @param out
+	 *            Appendable
+	 * @throws IOException
+	 */
+	public void writeXML(Appendable out) throws IOException {
+		writeXML(out, false);
+	}
+
+	/**
+	 * Writes the Loop in XML format, the same as {@link #toXML(boolean)}.
+	 * 
+	 * @param out
+	 *            Appendable
+	 * @param bRemoveTrailingEmptyElements
+	 * @throws IOException
+	 */
+	public void writeXML(Appendable out, boolean bRemoveTrailingEmptyElements) throws IOException {
+		LoopIterator walk = new LoopIterator(this);
+		int event;
+		while ((event = walk.step()) != LoopIterator.END) {
+			if (event == LoopIterator.EXIT) {
+				out.append("</LOOP>");
+				continue;
+			}
+			Loop loop = walk.current();
+			out.append("<LOOP NAME=\"").append(loop.name).append("\">");
+			for (Segment s : loop.segments) {
+				s.writeXML(out, bRemoveTrailingEmptyElements);
+			}
 		}
-		for (Loop l : this.childList()) {
-			dump.append(l.toXML(bRemoveTrailingEmptyElements));
+	}
+
+	/**
+	 * Writes the Loop in XML format to the stream, as UTF-8 through a buffer.
+	 * The stream is flushed but not closed.
+	 * 
+	 * @param out
+	 *            OutputStream
+	 * @throws IOException
+	 */
+	public void writeXML(OutputStream out) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		writeXML(writer, false);
+		writer.flush();
+	}
+
+	/**
+	 * Writes the Loop as a JSON object, with its segments and child loops:
+	 * <code>{"name":"2100","segments":[...],"loops":[...]}</code>, see
+	 * {@link Segment#writeJSON(Appendable)}. The loops and segments are
+	 * written one at a time, the JSON document is not built in memory.
+	 * 
+	 * @param out
+	 *            Appendable
+	 * @throws IOException
+	 */
+	public void writeJSON(Appendable out) throws IOException {
+		LoopIterator walk = new LoopIterator(this);
+		int event;
+		while ((event = walk.step()) != LoopIterator.END) {
+			if (event == LoopIterator.EXIT) {
+				out.append("]}");
+				continue;
+			}
+			Loop loop = walk.current();
+			if (loop != this && walk.position() > 0) {
+				out.append(',');
+			}
+			out.append("{\"name\":");
+			Json.string(out, loop.name);
+			out.append(",\"segments\":[");
+			for (int i = 0; i < loop.segments.size(); i++) {
+				if (i > 0) {
+					out.append(',');
+				}
+				loop.segments.get(i).writeJSON(out);
+			}
+			out.append("],\"loops\":[");
 		}
-		dump.append("</LOOP>");
-		return dump.toString();
+	}
+
+	/**
+	 * Writes the Loop as JSON to the stream, as UTF-8 through a buffer, see
+	 * {@link #writeJSON(Appendable)}. The stream is flushed but not closed.
+	 * 
+	 * @param out
+	 *            OutputStream
+	 * @throws IOException
+	 */
+	public void writeJSON(OutputStream out) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		writeJSON(writer);
+		writer.flush();
+	}
+
+	/**
+	 * Returns the Loop as JSON, see {@link #writeJSON(Appendable)}.
+	 * 
+	 * @return JSON String
+	 */
+	public String toJSON() {
+		return Dump.toString(this::writeJSON);
 	}
 
 	/**
@@ -540,4 +816,62 @@ public class Loop implements Iterable<Segment> {
 	public int getDepth() {
 		return depth;
 	}
+
+	/**
+	 * The list of the child loops. Changes made to the list, including
+	 * through the list returned by {@link Loop#getLoops()}, drop the loop
+	 * index.
+	 */
+	private final class ChildList extends AbstractList<Loop> {
+
+		private final List<Loop> list = new ArrayList<Loop>();
+
+		@Override
+		public Loop get(int index) {
+			return list.get(index);
+		}
+
+		@Override
+		public int size() {
+			return list.size();
+		}
+
+		@Override
+		public Loop set(int index, Loop loop) {
+			Loop previous = list.set(index, loop);
+			attached(loop);
+			invalidate();
+			return previous;
+		}
+
+		@Override
+		public void add(int index, Loop loop) {
+			list.add(index, loop);
+			modCount++;
+			attached(loop);
+			invalidate();
+		}
+
+		/**
+		 * Marks a loop added to an indexed hierarchy, and its child
+		 * hierarchy, as indexed.
+		 */
+		private void attached(Loop loop) {
+			if (!indexed || loop.indexed) {
+				return;
+			}
+			loop.indexed = true;
+			for (LoopIterator it = new LoopIterator(loop, null); it.hasNext();) {
+				it.next().indexed = true;
+			}
+		}
+
+		@Override
+		public Loop remove(int index) {
+			Loop removed = list.remove(index);
+			modCount++;
+			invalidate();
+			return removed;
+		}
+	}
 }
@@ -0,0 +1,63 @@
+/*
+   Copyright [2011] [Prasad Balan]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.pb.x12;
+
+/**
+ * <code>X12Handler</code> that builds the <code>X12</code> object returned by
+ * <code>X12Parser</code>.
+ * 
+ * @author Prasad Balan
+ */
+class LoopBuilder implements X12Handler {
+
+	private X12 x12;
+	private Loop loop;
+
+	@Override
+	public void startInterchange(Context context) {
+		x12 = new X12(context);
+		loop = x12;
+	}
+
+	@Override
+	public void startLoop(Cf cf) {
+		loop = loop.addChild(cf.getName());
+	}
+
+	@Override
+	public void segment(Segment segment) {
+		loop.addSegment(segment);
+	}
+
+	@Override
+	public void endLoop(Cf cf) {
+		loop = loop.getParent();
+	}
+
+	@Override
+	public void endInterchange() {
+	}
+
+	/**
+	 * Returns the X12 object built.
+	 * 
+	 * @return X12
+	 */
+	public X12 getX12() {
+		return x12;
+	}
+}
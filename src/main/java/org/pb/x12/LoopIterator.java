@@ -0,0 +1,207 @@
+/*
+   Copyright [2011] [Prasad Balan]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.pb.x12;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the child hierarchy of a loop in the order the loops appear in
+ * the X12 transaction, without building a list or recursing. Only the path
+ * from the root to the current loop is kept. The loop itself is not returned.
+ *
+ * The hierarchy can also be walked one event at a time with {@link #step()},
+ * which reports the loops being entered and exited, the root included.
+ *
+ * @author Prasad Balan
+ */
+final class LoopIterator implements Iterator<Loop> {
+
+	/**
+	 * No more loops.
+	 */
+	static final int END = 0;
+
+	/**
+	 * {@link #current()} is entered, before its child loops.
+	 */
+	static final int ENTER = 1;
+
+	/**
+	 * {@link #current()} is exited, after its child loops.
+	 */
+	static final int EXIT = 2;
+
+	private final String name;
+	private Loop[] path = new Loop[8];
+	private int[] positions = new int[8];
+	private int depth = -1;
+	private boolean started;
+	private Loop current;
+	private Loop next;
+
+	/**
+	 * The constructor takes the root of the hierarchy to walk with
+	 * {@link #step()}.
+	 *
+	 * @param root
+	 *            Loop
+	 */
+	LoopIterator(Loop root) {
+		this.name = null;
+		this.current = root;
+	}
+
+	/**
+	 * The constructor takes the root of the hierarchy and the name of the
+	 * loops to return.
+	 *
+	 * @param root
+	 *            Loop
+	 * @param name
+	 *            name of the loops, null for all the loops
+	 */
+	LoopIterator(Loop root, String name) {
+		this.name = name;
+		this.current = root;
+		step();
+		this.next = advance();
+	}
+
+	/**
+	 * Moves to the next event of the walk.
+	 *
+	 * @return {@link #ENTER}, {@link #EXIT} or {@link #END}
+	 */
+	int step() {
+		if (!started) {
+			started = true;
+			push(current);
+			return ENTER;
+		}
+		if (depth < 0) {
+			return END;
+		}
+		Loop loop = path[depth];
+		int i = positions[depth];
+		if (i < loop.getLoops().size()) {
+			positions[depth] = i + 1;
+			current = loop.getLoop(i);
+			push(current);
+			return ENTER;
+		}
+		path[depth--] = null;
+		current = loop;
+		return EXIT;
+	}
+
+	private void push(Loop loop) {
+		if (++depth == path.length) {
+			path = Arrays.copyOf(path, path.length * 2);
+			positions = Arrays.copyOf(positions, positions.length * 2);
+		}
+		path[depth] = loop;
+		positions[depth] = 0;
+	}
+
+	/**
+	 * Returns the loop of the last event.
+	 *
+	 * @return Loop
+	 */
+	Loop current() {
+		return current;
+	}
+
+	/**
+	 * Returns the position of the loop entered last in the child loops of
+	 * its parent, 0 for the root.
+	 *
+	 * @return int
+	 */
+	int position() {
+		return depth > 0 ? positions[depth - 1] - 1 : 0;
+	}
+
+	private Loop advance() {
+		int event;
+		while ((event = step()) != END) {
+			if (event == ENTER && (name == null || name.equals(current.getName()))) {
+				return current;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return next != null;
+	}
+
+	@Override
+	public Loop next() {
+		if (next == null) {
+			throw new NoSuchElementException();
+		}
+		Loop loop = next;
+		next = advance();
+		return loop;
+	}
+
+	/**
+	 * Iterates over the segments of a loop and its child hierarchy, in the
+	 * order they appear in the X12 transaction.
+	 */
+	static final class Segments implements Iterator<Segment> {
+
+		private final LoopIterator loops;
+		private Loop loop;
+		private int index;
+
+		/**
+		 * The constructor takes the root of the hierarchy.
+		 *
+		 * @param root
+		 *            Loop
+		 */
+		Segments(Loop root) {
+			this.loop = root;
+			this.loops = new LoopIterator(root, null);
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (index == loop.getSegments().size()) {
+				if (!loops.hasNext()) {
+					return false;
+				}
+				loop = loops.next();
+				index = 0;
+			}
+			return true;
+		}
+
+		@Override
+		public Segment next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return loop.getSegment(index++);
+		}
+	}
+}
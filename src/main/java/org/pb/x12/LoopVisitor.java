@@ -0,0 +1,73 @@
+/*
+   Copyright [2011] [Prasad Balan]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.pb.x12;
+
+/**
+ * Visitor of a <code>Loop</code> hierarchy, see {@link Loop#accept(LoopVisitor)}.
+ * The loops and segments are visited in the order they appear in the X12
+ * transaction: a loop is entered, its segments are visited, then its child
+ * loops, then the loop is exited. Each method returns false to stop the
+ * traversal, the methods not implemented continue it.
+ *
+ * <pre>
+ * loop.accept(new LoopVisitor() {
+ *     public boolean visitSegment(Segment s) {
+ *         if (&quot;CLP&quot;.equals(s.getElement(0))) {
+ *             total += s.getDecimalUnscaled(3, 2);
+ *         }
+ *         return true;
+ *     }
+ * });
+ * </pre>
+ *
+ * @author Prasad Balan
+ */
+public interface LoopVisitor {
+
+	/**
+	 * Called when a loop is entered, before its segments.
+	 *
+	 * @param loop
+	 *            Loop
+	 * @return false to stop the traversal
+	 */
+	default boolean enterLoop(Loop loop) {
+		return true;
+	}
+
+	/**
+	 * Called for each segment of the loop entered last.
+	 *
+	 * @param segment
+	 *            Segment
+	 * @return false to stop the traversal
+	 */
+	default boolean visitSegment(Segment segment) {
+		return true;
+	}
+
+	/**
+	 * Called when a loop is exited, after its child loops.
+	 *
+	 * @param loop
+	 *            Loop
+	 * @return false to stop the traversal
+	 */
+	default boolean exitLoop(Loop loop) {
+		return true;
+	}
+}
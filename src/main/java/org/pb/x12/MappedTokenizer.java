@@ -0,0 +1,108 @@
+/*
+   Copyright [2011] [Prasad Balan]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.pb.x12;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Tokenizer over a memory mapped X12 file. A <code>MappedByteBuffer</code>
+ * cannot be larger than 2 GB, files larger than 1 GB are mapped one window at
+ * a time. When the end of a window is reached, the next window is mapped
+ * starting at the segment being read, so a segment never spans two windows.
+ * A segment, with its separator and an optional CR/LF, has to fit in a
+ * window.
+ *
+ * The mappings stay valid after the channel is closed, segments created by
+ * the tokenizer keep the window they were read from.
+ *
+ * @author Prasad Balan
+ */
+final class MappedTokenizer extends ByteTokenizer {
+
+	/**
+	 * Largest number of bytes mapped at a time. Positions in a window plus
+	 * the few bytes read past a separator stay well below
+	 * <code>Integer.MAX_VALUE</code>.
+	 */
+	static final int WINDOW_SIZE = 1 << 30;
+
+	private final FileChannel channel;
+	private final long size;
+	private final int windowSize;
+	private long offset;
+
+	/**
+	 * The constructor maps the first window of the file.
+	 *
+	 * @param channel
+	 *            the file to tokenize
+	 * @param windowSize
+	 *            the largest number of bytes mapped at a time, at most
+	 *            {@link #WINDOW_SIZE}
+	 * @throws IOException
+	 */
+	MappedTokenizer(FileChannel channel, int windowSize) throws IOException {
+		super(map(channel, 0, Math.min(channel.size(), checkWindowSize(windowSize))));
+		this.channel = channel;
+		this.size = channel.size();
+		this.windowSize = windowSize;
+	}
+
+	static int checkWindowSize(int windowSize) {
+		if (windowSize <= 0 || windowSize > WINDOW_SIZE) {
+			throw new IllegalArgumentException("Window size: " + windowSize);
+		}
+		return windowSize;
+	}
+
+	private static ByteBuffer map(FileChannel channel, long position, long size)
+			throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+	}
+
+	/**
+	 * Returns the exception thrown when the segment at the start of a full
+	 * window does not end in the window.
+	 */
+	static UncheckedIOException segmentTooLarge(long offset, int windowSize) {
+		return new UncheckedIOException(new IOException("Segment at " + offset
+				+ " is larger than " + windowSize + " bytes"));
+	}
+
+	@Override
+	protected boolean fill() {
+		if (offset + end >= size) {
+			return false;
+		}
+		if (pos == 0) {
+			throw segmentTooLarge(offset, windowSize);
+		}
+		long start = offset + pos;
+		try {
+			setBuffer(map(channel, start, Math.min(size - start, windowSize)));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		offset = start;
+		end = (int) Math.min(size - start, windowSize);
+		pos = 0;
+		return true;
+	}
+}
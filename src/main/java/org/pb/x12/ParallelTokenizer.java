@@ -0,0 +1,288 @@
+/*
+   Copyright [2011] [Prasad Balan]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.pb.x12;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Tokenizer that breaks a <code>ByteBuffer</code> or a memory mapped file into
+ * segments on several threads. The bytes are cut into chunks, each chunk
+ * starting after a segment separator, and the chunks are tokenized in
+ * parallel into an index of the segment and element positions. The segments
+ * are then returned one at a time from the index, in order, the same way
+ * <code>ByteTokenizer</code> returns them.
+ *
+ * The index takes 4 bytes per element and 20 bytes per segment. It is built
+ * for one batch of chunks at a time, as many chunks as the pool has threads,
+ * and dropped before the next batch is tokenized, so its size depends on the
+ * pool and not on the size of the transaction. Each chunk counts its
+ * separators first and allocates its index once.
+ *
+ * A file is mapped one window at a time, see <code>MappedTokenizer</code>.
+ * Each window is indexed up to its last complete segment, the next window
+ * starts at the following segment. A segment has to fit in a window.
+ *
+ * @author Prasad Balan
+ */
+final class ParallelTokenizer extends ByteTokenizer {
+
+	/**
+	 * Number of bytes tokenized by one task.
+	 */
+	static final int CHUNK_SIZE = 1 << 20;
+
+	private final ForkJoinPool pool;
+	private final int chunkSize;
+	private final FileChannel channel;
+	private final long size;
+	private final int windowSize;
+	private ByteBuffer window;
+	private long offset;
+	private Context context;
+
+	private Chunk[] chunks;
+	private int chunk;
+	private int next;
+	private boolean more;
+
+	/**
+	 * The constructor takes the bytes between the position and the limit of
+	 * the buffer.
+	 *
+	 * @param buffer
+	 *            bytes of the X12 transaction
+	 * @param pool
+	 *            ForkJoinPool the chunks are tokenized on
+	 * @param chunkSize
+	 *            number of bytes tokenized by one task
+	 */
+	ParallelTokenizer(ByteBuffer buffer, ForkJoinPool pool, int chunkSize) {
+		super(buffer);
+		this.window = buffer;
+		this.pool = pool;
+		this.chunkSize = chunkSize;
+		this.channel = null;
+		this.size = 0;
+		this.windowSize = 0;
+	}
+
+	/**
+	 * The constructor maps the first window of the file.
+	 *
+	 * @param channel
+	 *            the file to tokenize
+	 * @param windowSize
+	 *            the largest number of bytes mapped at a time, at most
+	 *            <code>MappedTokenizer.WINDOW_SIZE</code>
+	 * @param pool
+	 *            ForkJoinPool the chunks are tokenized on
+	 * @param chunkSize
+	 *            number of bytes tokenized by one task
+	 * @throws IOException
+	 */
+	ParallelTokenizer(FileChannel channel, int windowSize, ForkJoinPool pool, int chunkSize)
+			throws IOException {
+		this(map(channel, 0, Math.min(channel.size(), MappedTokenizer.checkWindowSize(windowSize))),
+				pool, chunkSize, channel,
+				windowSize);
+	}
+
+	private ParallelTokenizer(ByteBuffer buffer, ForkJoinPool pool, int chunkSize,
+			FileChannel channel, int windowSize) throws IOException {
+		super(buffer);
+		this.window = buffer;
+		this.pool = pool;
+		this.chunkSize = chunkSize;
+		this.channel = channel;
+		this.size = channel.size();
+		this.windowSize = windowSize;
+	}
+
+	private static ByteBuffer map(FileChannel channel, long position, long size)
+			throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+	}
+
+	@Override
+	void setContext(Context context) {
+		super.setContext(context);
+		this.context = context;
+	}
+
+	@Override
+	protected boolean fill() {
+		if (channel == null || offset + end >= size) {
+			return false;
+		}
+		if (pos == 0) {
+			throw MappedTokenizer.segmentTooLarge(offset, windowSize);
+		}
+		long start = offset + pos;
+		try {
+			window = map(channel, start, Math.min(size - start, windowSize));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		setBuffer(window);
+		offset = start;
+		end = (int) Math.min(size - start, windowSize);
+		pos = 0;
+		return true;
+	}
+
+	@Override
+	boolean next() {
+		if (chunks == null) {
+			index();
+		}
+		while (true) {
+			for (; chunk < chunks.length; chunk++, next = 0) {
+				if (next < chunks[chunk].length) {
+					next = readSegment(chunks[chunk].index, next);
+					return true;
+				}
+			}
+			if (!more && !fill()) {
+				return false;
+			}
+			index();
+		}
+	}
+
+	/**
+	 * Tokenizes the next batch of chunks of the window, from the current
+	 * position up to its last complete segment. When the segment at the
+	 * current position does not end in the window, the next window is mapped
+	 * starting at the segment.
+	 */
+	private void index() {
+		char separator = context.getSegmentSeparator();
+		int to = end;
+		while (channel != null && offset + end < size) {
+			// the separator and a CR/LF following it have to be in the window
+			int i = end - 3;
+			while (i >= pos && charAt(i) != separator) {
+				i--;
+			}
+			if (i >= pos) {
+				to = skipSeparator(i);
+				break;
+			}
+			fill();
+			to = end;
+		}
+		int limit = to;
+		long batch = (long) chunkSize * pool.getParallelism();
+		if (limit - pos > batch) {
+			int i = indexOf(separator, (int) (pos + batch), limit);
+			to = i < limit ? Math.min(skipSeparator(i), limit) : limit;
+		}
+		more = to < limit;
+		int from = pos;
+		int n = Math.max(1, (to - from) / chunkSize);
+		chunks = new Chunk[n];
+		for (int k = 0; k < n; k++) {
+			int chunkEnd = to;
+			if (k + 1 < n) {
+				int i = indexOf(separator, from + (to - from) / (n - k), to);
+				chunkEnd = i < to ? Math.min(skipSeparator(i), to) : to;
+			}
+			chunks[k] = new Chunk(from, chunkEnd);
+			from = chunkEnd;
+		}
+		if (n == 1) {
+			chunks[0].invoke();
+		} else {
+			for (Chunk task : chunks) {
+				pool.execute(task);
+			}
+			for (Chunk task : chunks) {
+				task.join();
+			}
+		}
+		chunk = 0;
+		next = 0;
+		pos = to;
+	}
+
+	/**
+	 * Returns the number of entries allocated for the index of the current
+	 * batch.
+	 */
+	int indexSize() {
+		int size = 0;
+		for (Chunk c : chunks) {
+			size += c.index.length;
+		}
+		return size;
+	}
+
+	/**
+	 * Tokenizes the bytes of a chunk into a segment index, see
+	 * {@link Tokenizer#writeSegment(int[], int)}. The separators are counted
+	 * first to allocate the index at its size.
+	 */
+	private final class Chunk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final int to;
+		private int[] index;
+		private int length;
+
+		Chunk(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			ByteBuffer bytes = window.duplicate();
+			bytes.limit(to);
+			bytes.position(from);
+			byte segmentSeparator = (byte) context.getSegmentSeparator().charValue();
+			byte elementSeparator = (byte) context.getElementSeparator().charValue();
+			int segments = 1;
+			int elements = 0;
+			for (int i = from; i < to; i++) {
+				byte b = bytes.get(i);
+				if (b == segmentSeparator) {
+					segments++;
+				} else if (b == elementSeparator) {
+					elements++;
+				}
+			}
+			// each segment takes its elements plus 5 entries
+			index = new int[elements + 5 * segments];
+			Tokenizer tokenizer = new ByteTokenizer(bytes);
+			tokenizer.setSeparators(context);
+			while (tokenizer.next()) {
+				if (length + tokenizer.size() + 4 > index.length) {
+					int[] larger = new int[Math.max(index.length * 2, length + tokenizer.size() + 4)];
+					System.arraycopy(index, 0, larger, 0, length);
+					index = larger;
+				}
+				length = tokenizer.writeSegment(index, length);
+			}
+		}
+	}
+}
@@ -16,9 +16,17 @@
  */
 package org.pb.x12;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
  * This class represents an X12 segment.
@@ -28,6 +36,14 @@ import java.util.List;
 public class Segment implements Iterable<String> {
 	private static final long serialVersionUID = 1L;
 	private static final String EMPTY_STRING = "";
+	private static final long[] POWERS_OF_TEN = new long[19];
+
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
 	
 	private Context context;
 	private List<String> elements = new ArrayList<String>();
@@ -43,6 +59,21 @@ public class Segment implements Iterable<String> {
 		this.context = c;
 	}
 
+	/**
+	 * The constructor takes a <code>Context</code> object and the list holding
+	 * the elements. Used by the parsers to create segments backed by the
+	 * source.
+	 * 
+	 * @param c
+	 *            the context object
+	 * @param elements
+	 *            the elements of the segment
+	 */
+	Segment(Context c, List<String> elements) {
+		this.context = c;
+		this.elements = elements;
+	}
+
 	/**
 	 * Adds <code>String</code> element to the segment. The element is added at
 	 * the end of the elements in the current segment.
@@ -52,7 +83,7 @@ public class Segment implements Iterable<String> {
 	 * @return boolean
 	 */
 	public boolean addElement(String e) {
-		return elements.add(e);
+		return mutableElements().add(e);
 	}
 
 	/**
@@ -76,8 +107,9 @@ public class Segment implements Iterable<String> {
 	 * @return boolean
 	 */
 	public boolean addElements(String... es) {
+		List<String> elements = mutableElements();
 		for (String s : es) {
-			if (!this.elements.add(s))
+			if (!elements.add(s))
 				return false;
 		}
 		return true;
@@ -96,7 +128,7 @@ public class Segment implements Iterable<String> {
 			dump.append(s);
 			dump.append(context.getCompositeElementSeparator());
 		}
-		return this.elements.add(dump.substring(0, dump.length() - 1));
+		return mutableElements().add(dump.substring(0, dump.length() - 1));
 	}
 
 	/**
@@ -108,7 +140,7 @@ public class Segment implements Iterable<String> {
 	 * @return boolean
 	 */
 	public boolean addElement(int index, String e) {
-		return this.elements.add(e);
+		return mutableElements().add(e);
 	}
 
 	/**
@@ -123,7 +155,7 @@ public class Segment implements Iterable<String> {
 			dump.append(s);
 			dump.append(context.getCompositeElementSeparator());
 		}
-		this.elements.add(index, dump.substring(0, dump.length() - 1));
+		mutableElements().add(index, dump.substring(0, dump.length() - 1));
 	}
 
 	/**
@@ -146,22 +178,231 @@ public class Segment implements Iterable<String> {
 		return elements.get(index);
 	}
 
+	/**
+	 * Returns the element at the specified position as a <code>long</code>.
+	 * The element is parsed from the characters of the source, no
+	 * <code>String</code> is created. A decimal point followed by zeros is
+	 * accepted, e.g. <code>"100.00"</code> is 100.
+	 * 
+	 * @param index
+	 *            position
+	 * @return long
+	 * @throws NumberFormatException
+	 *             if the element is not a number or does not fit in a long
+	 * @throws ArithmeticException
+	 *             if the element has a fraction
+	 */
+	public long getLong(int index) {
+		return getDecimalUnscaled(index, 0);
+	}
+
+	/**
+	 * Returns the element at the specified position as an <code>int</code>,
+	 * see {@link #getLong(int)}.
+	 * 
+	 * @param index
+	 *            position
+	 * @return int
+	 * @throws NumberFormatException
+	 *             if the element is not a number or does not fit in an int
+	 * @throws ArithmeticException
+	 *             if the element has a fraction
+	 */
+	public int getInt(int index) {
+		long value = getLong(index);
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			throw new NumberFormatException("Value out of range: " + value);
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Returns the decimal element at the specified position as an unscaled
+	 * <code>long</code>, the value multiplied by 10 to the power of the scale.
+	 * e.g. <code>"1234.5"</code> with a scale of 2 is 123450, an amount in
+	 * cents. The element is parsed from the characters of the source, no
+	 * <code>String</code> or <code>BigDecimal</code> is created.
+	 * 
+	 * @param index
+	 *            position
+	 * @param scale
+	 *            number of decimal places, 0 to 18
+	 * @return long
+	 * @throws NumberFormatException
+	 *             if the element is not a decimal number or does not fit in
+	 *             a long once scaled
+	 * @throws ArithmeticException
+	 *             if the element has more non zero decimal places than the
+	 *             scale
+	 */
+	public long getDecimalUnscaled(int index, int scale) {
+		if (scale < 0 || scale >= POWERS_OF_TEN.length) {
+			throw new IllegalArgumentException("Scale: " + scale);
+		}
+		if (elements instanceof SourceElements && ((SourceElements) elements).created(index) == null) {
+			SourceElements source = (SourceElements) elements;
+			return parseDecimal(source, null, source.start(index), source.end(index), scale);
+		}
+		String e = elements.get(index);
+		return parseDecimal(null, e, 0, e.length(), scale);
+	}
+
+	/**
+	 * Parses a decimal number from the source between start and end, or from
+	 * the <code>String</code> if there is no source.
+	 */
+	private static long parseDecimal(SourceElements source, String s, int start, int end,
+			int scale) {
+		int i = start;
+		boolean negative = false;
+		if (i < end) {
+			char c = source != null ? source.charAt(i) : s.charAt(i);
+			if (c == '-' || c == '+') {
+				negative = c == '-';
+				i++;
+			}
+		}
+		long value = 0;
+		int digits = 0;
+		int decimals = -1;
+		boolean rounded = false;
+		for (; i < end; i++) {
+			char c = source != null ? source.charAt(i) : s.charAt(i);
+			if (c == '.' && decimals < 0) {
+				decimals = 0;
+				continue;
+			}
+			if (c < '0' || c > '9') {
+				throw numberFormat(source, s, start, end);
+			}
+			digits++;
+			int d = c - '0';
+			if (decimals == scale) {
+				rounded |= d != 0;
+				continue;
+			}
+			if (value > (Long.MAX_VALUE - d) / 10) {
+				throw numberFormat(source, s, start, end);
+			}
+			value = value * 10 + d;
+			if (decimals >= 0) {
+				decimals++;
+			}
+		}
+		if (digits == 0) {
+			throw numberFormat(source, s, start, end);
+		}
+		if (rounded) {
+			throw new ArithmeticException("More than " + scale + " decimal places: "
+					+ text(source, s, start, end));
+		}
+		long power = POWERS_OF_TEN[scale - Math.max(decimals, 0)];
+		if (value > Long.MAX_VALUE / power) {
+			throw numberFormat(source, s, start, end);
+		}
+		value *= power;
+		return negative ? -value : value;
+	}
+
+	private static String text(SourceElements source, String s, int start, int end) {
+		return source != null ? source.decode(start, end) : s;
+	}
+
+	private static NumberFormatException numberFormat(SourceElements source, String s,
+			int start, int end) {
+		return new NumberFormatException("For input string: \"" + text(source, s, start, end)
+				+ "\"");
+	}
+
 	/**
 	 * 
 	 * @return List of elements
 	 */
 	public List<String> getElements() {
-		return this.elements;
+		return mutableElements();
+	}
+
+	/**
+	 * Returns the elements as a list that can be modified. Segments created
+	 * by the parsers may hold a read only list backed by the source, it is
+	 * copied the first time the segment is modified.
+	 * 
+	 * @return List of elements
+	 */
+	private List<String> mutableElements() {
+		if (!(elements instanceof ArrayList)) {
+			elements = new ArrayList<String>(elements);
+		}
+		return elements;
 	}
 	
+	/**
+	 * Makes the elements of the segment read only, the first change made to
+	 * the segment copies them.
+	 */
+	void setReadOnly() {
+		if (elements instanceof ArrayList) {
+			elements = Collections.unmodifiableList(elements);
+		}
+	}
+
+	/**
+	 * Returns a segment with the context passed in that shares the elements
+	 * of this segment, which have to be read only, see
+	 * {@link #setReadOnly()}. The first change made to either segment copies
+	 * them. The segment is not modified, several threads can share it at the
+	 * same time.
+	 * 
+	 * @param context
+	 *            context object of the new segment
+	 * @return Segment
+	 * @throws IllegalStateException
+	 *             if the elements are not read only
+	 */
+	Segment share(Context context) {
+		if (elements instanceof ArrayList) {
+			throw new IllegalStateException("Elements are not read only");
+		}
+		return new Segment(context, elements);
+	}
+
+	/**
+	 * Returns an estimate of the bytes held by the segment. The elements of a
+	 * parsed segment are counted as if they had all been read, since the
+	 * strings created are kept with the segment. The source the elements are
+	 * read from is not counted.
+	 * 
+	 * @return long
+	 */
+	long estimateSize() {
+		long size = 48 + 8L * elements.size();
+		if (elements instanceof SourceElements) {
+			SourceElements source = (SourceElements) elements;
+			size += 4L * elements.size();
+			for (int i = 0; i < source.size(); i++) {
+				size += 40 + 2L * (source.end(i) - source.start(i));
+			}
+			return size;
+		}
+		for (int i = 0; i < elements.size(); i++) {
+			String e = elements.get(i);
+			if (e != null) {
+				size += 40 + 2L * e.length();
+			}
+		}
+		return size;
+	}
+
 	/**
 	 * Returns and <code>Iterator</code> to the elements in the segment.
+	 * <code>remove()</code> removes the element from the segment, the same
+	 * as {@link #removeElement(int)}.
 	 * 
 	 * @return Iterator<String>
 	 */
 	@Override
 	public Iterator<String> iterator() {
-		return elements.iterator();
+		return new ElementIterator();
 	}
 
 	/**
@@ -171,7 +412,7 @@ public class Segment implements Iterable<String> {
 	 * @return
 	 */
 	public String removeElement(int index) {
-		return elements.remove(index);
+		return mutableElements().remove(index);
 	}
 
 	/**
@@ -180,7 +421,7 @@ public class Segment implements Iterable<String> {
 	private void removeTrailingEmptyElements() {
 		for (int i = elements.size() - 1; i >= 0; i--) {
 			if (elements.get(i) == null || elements.get(i).length() == 0) {
-				elements.remove(i);
+				mutableElements().remove(i);
 			} else {
 				break;
 			}
@@ -207,7 +448,66 @@ public class Segment implements Iterable<String> {
 	 *            new element with which to replace
 	 */
 	public void setElement(int index, String s) {
-		elements.set(index, s);
+		mutableElements().set(index, s);
+	}
+
+	/**
+	 * Replaces element at the specified position with the
+	 * <code>long</code> value.
+	 * 
+	 * @param index
+	 *            position of the element to be replaced
+	 * @param value
+	 *            new value of the element
+	 */
+	public void setLong(int index, long value) {
+		setElement(index, Long.toString(value));
+	}
+
+	/**
+	 * Replaces element at the specified position with a decimal value given
+	 * unscaled, the reverse of {@link #getDecimalUnscaled(int, int)}. Trailing
+	 * zeros of the decimal places are not written, the same way X12 decimal
+	 * elements are usually formatted, e.g. 123450 with a scale of 2 is
+	 * written as <code>"1234.5"</code> and 100 as <code>"1"</code>.
+	 * 
+	 * @param index
+	 *            position of the element to be replaced
+	 * @param unscaled
+	 *            the value multiplied by 10 to the power of the scale
+	 * @param scale
+	 *            number of decimal places, 0 to 18
+	 */
+	public void setDecimal(int index, long unscaled, int scale) {
+		if (scale < 0 || scale >= POWERS_OF_TEN.length) {
+			throw new IllegalArgumentException("Scale: " + scale);
+		}
+		if (unscaled == 0 || scale == 0) {
+			setElement(index, Long.toString(unscaled));
+			return;
+		}
+		String digits = Long.toString(unscaled);
+		int from = unscaled < 0 ? 1 : 0;
+		int point = digits.length() - scale;
+		int end = digits.length();
+		while (end > point && digits.charAt(end - 1) == '0') {
+			end--;
+		}
+		StringBuilder dump = new StringBuilder(digits.length() + scale + 2);
+		dump.append(digits, 0, from);
+		if (point > from) {
+			dump.append(digits, from, point);
+		} else {
+			dump.append('0');
+		}
+		if (end > point) {
+			dump.append('.');
+			for (int i = point; i < from; i++) {
+				dump.append('0');
+			}
+			dump.append(digits, Math.max(point, from), end);
+		}
+		setElement(index, dump.toString());
 	}
 
 	/**
@@ -222,7 +522,7 @@ public class Segment implements Iterable<String> {
 			dump.append(s);
 			dump.append(context.getCompositeElementSeparator());
 		}
-		elements.set(index, dump.substring(0, dump.length() - 1));
+		mutableElements().set(index, dump.substring(0, dump.length() - 1));
 	}
 
 	/**
@@ -234,19 +534,64 @@ public class Segment implements Iterable<String> {
 		return elements.size();
 	}
 
+	/**
+	 * Writes the X12 representation of the segment, without the segment
+	 * separator.
+	 * 
+	 * @param out
+	 *            Appendable
+	 * @throws IOException
+	 */
+	public void writeTo(Appendable out) throws IOException {
+		List<String> elements = this.elements;
+		char separator = context.getElementSeparator();
+		for (int i = 0; i < elements.size(); i++) {
+			if (i > 0) {
+				out.append(separator);
+			}
+			out.append(elements.get(i));
+		}
+	}
+
+	/**
+	 * Writes the X12 representation of the segment, without the segment
+	 * separator.
+	 * 
+	 * @param out
+	 *            Appendable
+	 * @param bRemoveTrailingEmptyElements
+	 * @throws IOException
+	 */
+	public void writeTo(Appendable out, boolean bRemoveTrailingEmptyElements) throws IOException {
+		if (bRemoveTrailingEmptyElements)
+			removeTrailingEmptyElements();
+		writeTo(out);
+	}
+
+	/**
+	 * Writes the X12 representation of the segment to the stream, without
+	 * the segment separator. The characters are written as ISO-8859-1, the
+	 * charset <code>X12Parser.parse(ByteBuffer)</code> reads. The stream is
+	 * flushed but not closed.
+	 * 
+	 * @param out
+	 *            OutputStream
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.ISO_8859_1));
+		writeTo(writer);
+		writer.flush();
+	}
+
 	/**
 	 * Returns the X12 representation of the segment.
 	 */
 	public String toString() {
-		StringBuilder dump = new StringBuilder();
-		for (String s : this.elements) {
-			dump.append(s);
-			dump.append(context.getElementSeparator());
-		}
-		if (dump.length() == 0) {
+		if (elements.isEmpty()) {
 			return EMPTY_STRING;
 		}
-		return dump.substring(0, dump.length() - 1);
+		return Dump.toString(this::writeTo);
 	}
 
 	/**
@@ -267,15 +612,91 @@ public class Segment implements Iterable<String> {
 	 * @return <code>String</code>
 	 */
 	public String toXML() {
-		StringBuilder dump = new StringBuilder();
-		dump.append("<" + this.elements.get(0) + ">");
-		for (int i = 1; i < this.elements.size(); i++) {
-			dump.append("<" + this.elements.get(0) + String.format("%1$02d", i) + "><![CDATA[");
-			dump.append(this.elements.get(i));
-			dump.append("]]></" + this.elements.get(0) + String.format("%1$02d", i) + ">");
+		return Dump.toString(this::writeXML);
+	}
+
+	/**
+	 * Writes the XML representation of the segment, the same as
+	 * {@link #toXML()}. The element tags are written a character at a time,
+	 * no <code>String</code> is created.
+	 * 
+	 * @param out
+	 *            Appendable
+	 * @throws IOException
+	 */
+	public void writeXML(Appendable out) throws IOException {
+		List<String> elements = this.elements;
+		String id = elements.get(0);
+		out.append('<').append(id).append('>');
+		for (int i = 1; i < elements.size(); i++) {
+			out.append('<');
+			appendTag(out, id, i);
+			out.append("><![CDATA[").append(elements.get(i)).append("]]></");
+			appendTag(out, id, i);
+			out.append('>');
+		}
+		out.append("</").append(id).append('>');
+	}
+
+	/**
+	 * Writes the XML representation of the segment, the same as
+	 * {@link #toXML(boolean)}.
+	 * 
+	 * @param out
+	 *            Appendable
+	 * @param bRemoveTrailingEmptyElements
+	 * @throws IOException
+	 */
+	public void writeXML(Appendable out, boolean bRemoveTrailingEmptyElements) throws IOException {
+		if (bRemoveTrailingEmptyElements)
+			removeTrailingEmptyElements();
+		writeXML(out);
+	}
+
+	/**
+	 * Writes the segment as a JSON object, the segment id and the array of
+	 * the following elements: <code>{"id":"CLP","elements":["1","1"]}</code>.
+	 * The first element of the array is the one tagged <code>CLP01</code> by
+	 * {@link #toXML()}.
+	 * 
+	 * @param out
+	 *            Appendable
+	 * @throws IOException
+	 */
+	public void writeJSON(Appendable out) throws IOException {
+		List<String> elements = this.elements;
+		out.append("{\"id\":");
+		Json.string(out, elements.isEmpty() ? null : elements.get(0));
+		out.append(",\"elements\":[");
+		for (int i = 1; i < elements.size(); i++) {
+			if (i > 1) {
+				out.append(',');
+			}
+			Json.string(out, elements.get(i));
+		}
+		out.append("]}");
+	}
+
+	/**
+	 * Returns the segment as a JSON object, see {@link #writeJSON(Appendable)}.
+	 * 
+	 * @return <code>String</code>
+	 */
+	public String toJSON() {
+		return Dump.toString(this::writeJSON);
+	}
+
+	/**
+	 * Writes the tag of an element, the segment id followed by the position
+	 * of the element on at least two digits.
+	 */
+	private static void appendTag(Appendable out, String id, int i) throws IOException {
+		out.append(id);
+		if (i < 100) {
+			out.append((char) ('0' + i / 10)).append((char) ('0' + i % 10));
+		} else {
+			out.append(Integer.toString(i));
 		}
-		dump.append("</" + this.elements.get(0) + ">");
-		return dump.toString();
 	}
 
 	/**
@@ -290,4 +711,37 @@ public class Segment implements Iterable<String> {
 		return this.toXML();
 	}
 
+	/**
+	 * Iterates over the elements without copying them. The elements of a
+	 * parsed or shared segment are copied by <code>remove()</code> only.
+	 */
+	private final class ElementIterator implements Iterator<String> {
+		private int next;
+		private int last = -1;
+
+		@Override
+		public boolean hasNext() {
+			return next < elements.size();
+		}
+
+		@Override
+		public String next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			last = next++;
+			return elements.get(last);
+		}
+
+		@Override
+		public void remove() {
+			if (last < 0) {
+				throw new IllegalStateException();
+			}
+			mutableElements().remove(last);
+			next = last;
+			last = -1;
+		}
+	}
+
 }
@@ -0,0 +1,127 @@
+/*
+   Copyright [2011] [Prasad Balan]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.pb.x12;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The list of the segments of a <code>Loop</code> or a
+ * <code>X12Simple</code>. The owner is told about every change made to the
+ * list, including through the list returned by <code>getSegments()</code>, so
+ * it can drop its segment index.
+ *
+ * @author Prasad Balan
+ */
+final class SegmentList extends AbstractList<Segment> {
+
+	private final List<Segment> list = new ArrayList<Segment>();
+	private final Runnable changed;
+
+	/**
+	 * The constructor takes the action run after each change.
+	 *
+	 * @param changed
+	 *            drops the index of the owner
+	 */
+	SegmentList(Runnable changed) {
+		this.changed = changed;
+	}
+
+	@Override
+	public Segment get(int index) {
+		return list.get(index);
+	}
+
+	@Override
+	public int size() {
+		return list.size();
+	}
+
+	@Override
+	public Segment set(int index, Segment segment) {
+		Segment previous = list.set(index, segment);
+		changed.run();
+		return previous;
+	}
+
+	@Override
+	public void add(int index, Segment segment) {
+		list.add(index, segment);
+		modCount++;
+		changed.run();
+	}
+
+	@Override
+	public Segment remove(int index) {
+		Segment removed = list.remove(index);
+		modCount++;
+		changed.run();
+		return removed;
+	}
+
+	/**
+	 * Adds the segments to the index by segment id, after the segments
+	 * already in the index. Segments without elements are not indexed.
+	 *
+	 * @param index
+	 *            segment id to segments
+	 * @param segments
+	 *            segments to add
+	 */
+	static void index(Map<String, List<Segment>> index, List<Segment> segments) {
+		for (Segment s : segments) {
+			if (s.size() == 0) {
+				continue;
+			}
+			String id = s.getElement(0);
+			List<Segment> found = index.get(id);
+			if (found == null) {
+				found = new ArrayList<Segment>();
+				index.put(id, found);
+			}
+			found.add(s);
+		}
+	}
+
+	/**
+	 * Returns the segments of the index with the id. The id of each segment
+	 * is checked again, since a segment may have been changed after it was
+	 * indexed.
+	 *
+	 * @param index
+	 *            segment id to segments
+	 * @param name
+	 *            segment id
+	 * @return a new list
+	 */
+	static List<Segment> find(Map<String, List<Segment>> index, String name) {
+		List<Segment> indexed = index.get(name);
+		if (indexed == null) {
+			return new ArrayList<Segment>();
+		}
+		List<Segment> found = new ArrayList<Segment>(indexed.size());
+		for (Segment s : indexed) {
+			if (s.size() > 0 && name.equals(s.getElement(0))) {
+				found.add(s);
+			}
+		}
+		return found;
+	}
+}
@@ -0,0 +1,129 @@
+/*
+   Copyright [2011] [Prasad Balan]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.pb.x12;
+
+import java.util.AbstractList;
+
+/**
+ * Read only list of the elements of a segment, backed by the source the
+ * segment was parsed from. Only the positions of the elements are kept, an
+ * element <code>String</code> is created the first time it is read and
+ * cached for the following reads. The cache itself is only created when an
+ * element is read, unless elements created while parsing, such as the
+ * interned short values, are passed to the constructor.
+ *
+ * The list can be read by several threads, as the segments returned by
+ * <code>CachingParser</code> do. An element read at the same time by two
+ * threads may be created twice, both threads get an equal value.
+ *
+ * @author Prasad Balan
+ */
+abstract class SourceElements extends AbstractList<String> {
+
+	private final int[] starts;
+	private String[] elements;
+
+	/**
+	 * The constructor takes the positions of the elements and the elements
+	 * already created, which are not read from the source.
+	 *
+	 * @param starts
+	 *            positions of the elements, followed by the position after
+	 *            the end of the last element plus one
+	 * @param elements
+	 *            the elements created, null for those to read from the
+	 *            source, can be null
+	 */
+	SourceElements(int[] starts, String[] elements) {
+		this.starts = starts;
+		this.elements = elements;
+	}
+
+	/**
+	 * Returns the character at the specified position in the source.
+	 */
+	abstract char charAt(int index);
+
+	/**
+	 * Returns the characters of the source between start (inclusive) and end
+	 * (exclusive) as a <code>String</code>.
+	 */
+	abstract String decode(int start, int end);
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+		}
+	}
+
+	/**
+	 * Returns the position of the first character of the element in the
+	 * source.
+	 *
+	 * @param index
+	 *            position of the element
+	 * @return int
+	 */
+	int start(int index) {
+		checkIndex(index);
+		return starts[index];
+	}
+
+	/**
+	 * Returns the position following the last character of the element in
+	 * the source.
+	 *
+	 * @param index
+	 *            position of the element
+	 * @return int
+	 */
+	int end(int index) {
+		checkIndex(index);
+		return starts[index + 1] - 1;
+	}
+
+	/**
+	 * Returns the element at the specified position if it has been created.
+	 *
+	 * @param index
+	 *            position
+	 * @return String, or null
+	 */
+	String created(int index) {
+		checkIndex(index);
+		return elements == null ? null : elements[index];
+	}
+
+	@Override
+	public String get(int index) {
+		checkIndex(index);
+		if (elements == null) {
+			elements = new String[size()];
+		}
+		String e = elements[index];
+		if (e == null) {
+			e = decode(starts[index], starts[index + 1] - 1);
+			elements[index] = e;
+		}
+		return e;
+	}
+
+	@Override
+	public int size() {
+		return starts.length - 1;
+	}
+}
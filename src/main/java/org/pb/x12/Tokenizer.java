@@ -0,0 +1,439 @@
+/*
+   Copyright [2011] [Prasad Balan]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.pb.x12;
+
+/**
+ * The class breaks a X12 transaction into segments and elements in a single
+ * pass, without using regular expressions. Subclasses provide access to the
+ * underlying characters or bytes.
+ *
+ * A segment ends at the segment separator, which may be followed by an
+ * optional CR/LF or LF. Elements of the current segment are split on the
+ * element separator, trailing empty elements are dropped the same way
+ * <code>String.split()</code> does.
+ *
+ * @author Prasad Balan
+ */
+abstract class Tokenizer {
+
+	protected int end;
+	protected int pos;
+
+	private char segmentSeparator;
+	private char elementSeparator;
+
+	private int segmentStart;
+	private int segmentEnd;
+	private int[] starts = new int[32];
+	private int count;
+
+	private InternTable internTable;
+
+	/**
+	 * The constructor takes the range of the source to tokenize.
+	 *
+	 * @param offset
+	 *            position of the first character
+	 * @param length
+	 *            number of characters
+	 */
+	protected Tokenizer(int offset, int length) {
+		this.pos = offset;
+		this.end = offset + length;
+	}
+
+	/**
+	 * Returns the character at the specified position in the source.
+	 */
+	protected abstract char charAt(int index);
+
+	/**
+	 * Returns the position of the first occurrence of the character in the
+	 * source between from (inclusive) and to (exclusive), or to if there is
+	 * none.
+	 */
+	protected abstract int indexOf(char c, int from, int to);
+
+	/**
+	 * Returns the characters of the source between start (inclusive) and end
+	 * (exclusive) as a <code>String</code>.
+	 */
+	protected abstract String substring(int start, int end);
+
+	/**
+	 * Makes more of the source available. The characters from pos to end are
+	 * kept, pos and end are updated if they move, even when nothing is added. Tokenizers over a source
+	 * that is held in memory have nothing to add.
+	 *
+	 * @return false if the end of the source has been reached
+	 * @throws java.io.UncheckedIOException
+	 *             if the source cannot be read, or a segment with its
+	 *             separator does not fit in the characters that can be
+	 *             made available at a time
+	 */
+	protected boolean fill() {
+		return false;
+	}
+
+	/**
+	 * Sets the table the short element values of the segments created are
+	 * looked up in. The values are looked up when a segment is created, the
+	 * segments do not keep the table.
+	 *
+	 * @param internTable
+	 *            InternTable, or null
+	 */
+	void setInternTable(InternTable internTable) {
+		this.internTable = internTable;
+	}
+
+	/**
+	 * Returns the short elements of the current segment looked up in the
+	 * intern table, null for the longer elements.
+	 *
+	 * @return String[], or null if there is no intern table
+	 */
+	String[] internElements() {
+		if (internTable == null) {
+			return null;
+		}
+		String[] elements = new String[count];
+		for (int i = 0; i < count; i++) {
+			if (starts[i + 1] - 1 - starts[i] <= InternTable.MAX_LENGTH) {
+				elements[i] = internTable.intern(this, starts[i], starts[i + 1] - 1);
+			}
+		}
+		return elements;
+	}
+
+	/**
+	 * Returns the number of characters not yet tokenized.
+	 *
+	 * @return int
+	 */
+	int remaining() {
+		return end - pos;
+	}
+
+	/**
+	 * Returns the character at the specified position, relative to the
+	 * current position. Used to read the delimiters from the ISA segment.
+	 *
+	 * @param index
+	 *            position
+	 * @return char
+	 */
+	char peek(int index) {
+		return charAt(pos + index);
+	}
+
+	/**
+	 * Reads the delimiters from the ISA segment at the current position.
+	 *
+	 * @return Context
+	 * @throws FormatException
+	 *             if the source is shorter than a ISA segment
+	 */
+	Context readContext() throws FormatException {
+		if (remaining() < X12Parser.SIZE) {
+			throw new FormatException();
+		}
+		Context context = new Context();
+		context.setSegmentSeparator(peek(X12Parser.POS_SEGMENT));
+		context.setElementSeparator(peek(X12Parser.POS_ELEMENT));
+		context.setCompositeElementSeparator(peek(X12Parser.POS_COMPOSITE_ELEMENT));
+		return context;
+	}
+
+	/**
+	 * Sets the separators used to break segments and elements.
+	 *
+	 * @param context
+	 *            Context object
+	 */
+	void setContext(Context context) {
+		setSeparators(context);
+		if (pos < end && charAt(pos) == segmentSeparator) {
+			pos = skipSeparator(pos);
+		}
+	}
+
+	/**
+	 * Sets the separators used to break segments and elements, for a
+	 * tokenizer that starts at the beginning of a segment.
+	 *
+	 * @param context
+	 *            Context object
+	 */
+	void setSeparators(Context context) {
+		this.segmentSeparator = context.getSegmentSeparator();
+		this.elementSeparator = context.getElementSeparator();
+	}
+
+	/**
+	 * Moves to the next segment.
+	 *
+	 * @return false if there are no more segments
+	 */
+	boolean next() {
+		if (pos >= end && !fill()) {
+			return false;
+		}
+		int i = indexOf(segmentSeparator, pos, end);
+		// the separator and a CR/LF following it have to be available
+		while (i >= end - 2) {
+			boolean more = fill();
+			i = indexOf(segmentSeparator, pos, end);
+			if (!more) {
+				break;
+			}
+		}
+		segmentStart = pos;
+		segmentEnd = i;
+		pos = i < end ? skipSeparator(i) : end;
+		split();
+		return true;
+	}
+
+	/**
+	 * Skips the segment separator at the specified position and an optional
+	 * CR/LF or LF following it.
+	 */
+	int skipSeparator(int i) {
+		i++;
+		if (i + 1 < end && charAt(i) == '\r' && charAt(i + 1) == '\n') {
+			return i + 2;
+		}
+		if (i < end && charAt(i) == '\n') {
+			return i + 1;
+		}
+		return i;
+	}
+
+	/**
+	 * Records the start of each element in the current segment. The entry
+	 * following the last element marks the end of the last element.
+	 */
+	private void split() {
+		count = 0;
+		if (segmentStart == segmentEnd) {
+			starts[count++] = segmentStart;
+			starts[count] = segmentStart + 1;
+			return;
+		}
+		int start = segmentStart;
+		while (start <= segmentEnd) {
+			if (count == starts.length - 1) {
+				int[] larger = new int[starts.length * 2];
+				System.arraycopy(starts, 0, larger, 0, count);
+				starts = larger;
+			}
+			starts[count++] = start;
+			start = indexOf(elementSeparator, start, segmentEnd) + 1;
+		}
+		starts[count] = segmentEnd + 1;
+		while (count > 0 && starts[count] - starts[count - 1] == 1) {
+			count--;
+		}
+	}
+
+	/**
+	 * Returns number of elements in the current segment.
+	 *
+	 * @return size
+	 */
+	int size() {
+		return count;
+	}
+
+	/**
+	 * Returns the element at the specified position in the current segment.
+	 *
+	 * @param index
+	 *            position
+	 * @return String
+	 */
+	String getElement(int index) {
+		if (index >= count) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+		}
+		return substring(starts[index], starts[index + 1] - 1);
+	}
+
+	/**
+	 * Returns the elements of the current segment.
+	 *
+	 * @return String[]
+	 */
+	String[] getElements() {
+		String[] elements = new String[count];
+		for (int i = 0; i < count; i++) {
+			elements[i] = getElement(i);
+		}
+		return elements;
+	}
+
+	/**
+	 * Returns the length of the element at the specified position in the
+	 * current segment.
+	 *
+	 * @param index
+	 *            position
+	 * @return length
+	 */
+	int elementLength(int index) {
+		if (index >= count) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+		}
+		return starts[index + 1] - 1 - starts[index];
+	}
+
+	/**
+	 * Returns a character of the element at the specified position in the
+	 * current segment.
+	 *
+	 * @param index
+	 *            position of the element
+	 * @param pos
+	 *            position of the character in the element
+	 * @return char
+	 */
+	char elementCharAt(int index, int pos) {
+		if (pos < 0 || pos >= elementLength(index)) {
+			throw new IndexOutOfBoundsException("Index: " + pos);
+		}
+		return charAt(starts[index] + pos);
+	}
+
+	/**
+	 * Checks if the element at the specified position in the current segment
+	 * is equal to the <code>String</code>, without creating the element.
+	 *
+	 * @param index
+	 *            position
+	 * @param s
+	 *            String to compare with
+	 * @return false if the segment has no element at the position
+	 */
+	boolean elementEquals(int index, String s) {
+		if (s == null || index >= count) {
+			return false;
+		}
+		int start = starts[index];
+		int length = starts[index + 1] - 1 - start;
+		if (length != s.length()) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (charAt(start + i) != s.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the hash code of the element at the specified position in the
+	 * current segment, equal to the <code>hashCode()</code> of the element
+	 * <code>String</code>.
+	 *
+	 * @param index
+	 *            position
+	 * @return int
+	 */
+	int elementHash(int index) {
+		int hash = 0;
+		for (int i = starts[index], e = starts[index + 1] - 1; i < e; i++) {
+			hash = 31 * hash + charAt(i);
+		}
+		return hash;
+	}
+
+	/**
+	 * Creates a <code>Segment</code> holding the elements of the current
+	 * segment.
+	 *
+	 * @param context
+	 *            Context object
+	 * @return Segment
+	 */
+	Segment newSegment(Context context) {
+		Segment s = new Segment(context);
+		s.addElements(getElements());
+		return s;
+	}
+
+	/**
+	 * Returns the positions of the elements of the current segment, followed
+	 * by the position after the end of the last element plus one.
+	 *
+	 * @return int[]
+	 */
+	int[] copyStarts() {
+		int[] copy = new int[count + 1];
+		System.arraycopy(starts, 0, copy, 0, count + 1);
+		return copy;
+	}
+
+	/**
+	 * Writes the current segment to a segment index at the offset: the start
+	 * and the end of the segment, the number of elements and the positions
+	 * returned by {@link #copyStarts()}. The index needs room for
+	 * <code>size() + 4</code> entries.
+	 *
+	 * @param index
+	 *            int[]
+	 * @param offset
+	 *            position in the index
+	 * @return the position following the segment
+	 */
+	int writeSegment(int[] index, int offset) {
+		index[offset] = segmentStart;
+		index[offset + 1] = segmentEnd;
+		index[offset + 2] = count;
+		System.arraycopy(starts, 0, index, offset + 3, count + 1);
+		return offset + count + 4;
+	}
+
+	/**
+	 * Makes the segment written to a segment index at the offset the current
+	 * segment, see {@link #writeSegment(int[], int)}.
+	 *
+	 * @param index
+	 *            int[]
+	 * @param offset
+	 *            position in the index
+	 * @return the position following the segment
+	 */
+	int readSegment(int[] index, int offset) {
+		segmentStart = index[offset];
+		segmentEnd = index[offset + 1];
+		count = index[offset + 2];
+		if (starts.length <= count) {
+			starts = new int[count + 1];
+		}
+		System.arraycopy(index, offset + 3, starts, 0, count + 1);
+		return offset + count + 4;
+	}
+
+	/**
+	 * Returns the current segment as it appears in the source.
+	 */
+	public String toString() {
+		return substring(segmentStart, segmentEnd);
+	}
+}
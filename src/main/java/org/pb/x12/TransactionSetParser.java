@@ -0,0 +1,240 @@
+/*
+   Copyright [2011] [Prasad Balan]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.pb.x12;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parses the transaction sets of a X12 transaction in parallel. The ST
+ * segments are found with a scan of the segment separators, and the
+ * transaction is cut into chunks starting at ST segments. Each chunk is parsed
+ * on the pool, under a chain of stand-in loops for the loops that are open
+ * when the chunk starts (X12, ISA, GS). The loops of the chunks are then
+ * moved, in order, into the loops of the chunk before.
+ * 
+ * A chunk can only be parsed on its own if its ST segment starts the ST loop
+ * when the transaction is parsed sequentially. Each chunk checks this for the
+ * ST segment of the next chunk, if the check fails for any chunk the
+ * transaction is not split.
+ * 
+ * @author Prasad Balan
+ */
+final class TransactionSetParser {
+
+	/**
+	 * Number of chunks per thread of the pool.
+	 */
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	private final CompiledCf cf;
+	private final CompiledCf.Node st;
+
+	TransactionSetParser(CompiledCf cf) {
+		this.cf = cf;
+		this.st = find(cf.root(), "ST");
+	}
+
+	/**
+	 * Returns the first node, in depth first order, of a loop identified by
+	 * the segment id.
+	 */
+	private static CompiledCf.Node find(CompiledCf.Node node, String segment) {
+		for (CompiledCf.Node n : CompiledCf.preorder(node)) {
+			if (n != node && segment.equals(n.cf.getSegment())) {
+				return n;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Parses the transaction held between the position and the limit of the
+	 * buffer.
+	 * 
+	 * @param source
+	 *            ByteBuffer
+	 * @param pool
+	 *            ForkJoinPool the chunks are parsed on
+	 * @param internTable
+	 *            table of the short element values, can be null
+	 * @return the X12 object, or null if the transaction cannot be split
+	 * @throws FormatException
+	 */
+	X12 parse(ByteBuffer source, ForkJoinPool pool, InternTable internTable)
+			throws FormatException {
+		if (st == null) {
+			return null;
+		}
+		Context context = new ByteTokenizer(source).readContext();
+		List<Integer> starts = new ArrayList<Integer>();
+		InterchangeScanner.scan(source, source.position(), source.limit(), context, "ST", starts);
+		if (!starts.isEmpty()) {
+			// the first chunk holds the headers and the first transaction set
+			starts.remove(0);
+		}
+		int chunks = Math.min(starts.size() + 1, pool.getParallelism() * CHUNKS_PER_THREAD);
+		if (chunks < 2) {
+			return null;
+		}
+		List<Chunk> tasks = new ArrayList<Chunk>(chunks);
+		int from = source.position();
+		for (int c = 0; c < chunks; c++) {
+			int to = c + 1 < chunks ? starts.get((int) ((long) starts.size() * (c + 1) / chunks))
+					: source.limit();
+			ByteBuffer chunk = slice(source, from, to);
+			ByteBuffer next = c + 1 < chunks ? slice(source, to, source.limit()) : null;
+			tasks.add(new Chunk(chunk, next, context, c == 0 ? cf.root() : st.parent, internTable));
+			from = to;
+		}
+		for (Chunk task : tasks) {
+			pool.execute(task);
+		}
+		boolean split = true;
+		for (Chunk task : tasks) {
+			task.join();
+			split &= task.next == null || task.nextStartsLoop;
+		}
+		return split ? stitch(tasks) : null;
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int start, int end) {
+		ByteBuffer slice = buffer.duplicate();
+		slice.limit(end);
+		slice.position(start);
+		return slice;
+	}
+
+	/**
+	 * Moves the loops of each chunk into the loops open at the end of the
+	 * chunk before.
+	 */
+	private X12 stitch(List<Chunk> tasks) {
+		int levels = st.depth;
+		Loop[] open = new Loop[levels];
+		openLoops(tasks.get(0).end, open, null);
+		for (int c = 1; c < tasks.size(); c++) {
+			Chunk chunk = tasks.get(c);
+			for (int d = 0; d < levels; d++) {
+				for (Loop loop : chunk.stubs[d].getLoops()) {
+					if (d + 1 < levels && loop == chunk.stubs[d + 1]) {
+						continue;
+					}
+					open[d].addChild(open[d].getLoops().size(), loop);
+				}
+			}
+			openLoops(chunk.end, open, chunk.stubs);
+		}
+		return (X12) tasks.get(0).stubs[0];
+	}
+
+	/**
+	 * Records the loops open at the end of a chunk, for the levels above the
+	 * ST loop. Stand-in loops leave the loop of the chunk before open.
+	 */
+	private static void openLoops(Loop end, Loop[] open, Loop[] stubs) {
+		Loop loop = end;
+		while (loop.getDepth() >= open.length) {
+			loop = loop.getParent();
+		}
+		for (; loop != null; loop = loop.getParent()) {
+			int d = loop.getDepth();
+			if (stubs == null || loop != stubs[d]) {
+				open[d] = loop;
+			}
+		}
+	}
+
+	/**
+	 * Parses a chunk of the transaction.
+	 */
+	private final class Chunk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final ByteBuffer source;
+		private final ByteBuffer next;
+		private final Context context;
+		private final CompiledCf.Node start;
+		private final Loop[] stubs;
+		private final InternTable internTable;
+		private Loop end;
+		private boolean nextStartsLoop;
+
+		/**
+		 * @param source
+		 *            the chunk
+		 * @param next
+		 *            the bytes following the chunk, starting with a ST
+		 *            segment, or null for the last chunk
+		 * @param context
+		 *            the delimiters
+		 * @param start
+		 *            the root for the first chunk, or the parent of the ST
+		 *            loop
+		 * @param internTable
+		 *            table of the short element values, can be null
+		 */
+		Chunk(ByteBuffer source, ByteBuffer next, Context context, CompiledCf.Node start,
+				InternTable internTable) {
+			this.source = source;
+			this.internTable = internTable;
+			this.next = next;
+			this.context = context;
+			this.start = start;
+			this.stubs = new Loop[start.depth + 1];
+			CompiledCf.Node[] path = new CompiledCf.Node[start.depth + 1];
+			for (CompiledCf.Node n = start; n != null; n = n.parent) {
+				path[n.depth] = n;
+			}
+			stubs[0] = new X12(context);
+			for (int d = 1; d < stubs.length; d++) {
+				stubs[d] = stubs[d - 1].addChild(path[d].cf.getName());
+			}
+		}
+
+		@Override
+		protected void compute() {
+			Tokenizer tokenizer = new ByteTokenizer(source);
+			tokenizer.setContext(context);
+			tokenizer.setInternTable(internTable);
+			X12Reader reader = new X12Reader(start, context, tokenizer);
+			Loop loop = stubs[stubs.length - 1];
+			while (reader.hasNext()) {
+				switch (reader.next()) {
+				case X12Reader.LOOP_START:
+					loop = loop.addChild(reader.getCf().getName());
+					break;
+				case X12Reader.SEGMENT:
+					loop.addSegment(reader.getSegment());
+					break;
+				case X12Reader.LOOP_END:
+					loop = loop.getParent();
+					break;
+				}
+			}
+			end = loop;
+			if (next != null) {
+				Tokenizer t = new ByteTokenizer(next);
+				t.setContext(context);
+				nextStartsLoop = t.next() && CompiledCf.match(reader.currentNode(), t) == st;
+			}
+		}
+	}
+}
@@ -16,6 +16,10 @@
  */
 package org.pb.x12;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
 /**
  * The X12 class is the object representation of an ANSI X12
  * transaction. The building block of an X12 transaction is an element. Some
@@ -37,4 +41,36 @@ public class X12 extends Loop implements EDI {
 	public X12(Context c) {
 		super(c, "X12");
 	}
+
+	/**
+	 * Writes the X12 object in a compact binary format, read back with
+	 * {@link #readBinary(InputStream)} without tokenizing the segments or
+	 * matching them to a <code>Cf</code> hierarchy. Loop names, segment ids
+	 * and short elements are written once and then referred to, the other
+	 * elements are written as their length and characters. The loops and
+	 * segments are written with the context of the X12 object. The stream is
+	 * flushed but not closed.
+	 * 
+	 * @param out
+	 *            OutputStream
+	 * @throws IOException
+	 */
+	public void writeBinary(OutputStream out) throws IOException {
+		X12Binary.write(this, out);
+	}
+
+	/**
+	 * Reads a X12 object written by {@link #writeBinary(OutputStream)}. The
+	 * stream is read through a buffer and is not closed.
+	 * 
+	 * @param in
+	 *            InputStream
+	 * @return X12
+	 * @throws IOException
+	 *             if the stream cannot be read, ends early or was not written
+	 *             by {@link #writeBinary(OutputStream)}
+	 */
+	public static X12 readBinary(InputStream in) throws IOException {
+		return X12Binary.read(in);
+	}
 }
@@ -0,0 +1,465 @@
+/*
+   Copyright [2011] [Prasad Balan]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.pb.x12;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary encoding of a <code>X12</code> object, see
+ * {@link X12#writeBinary(OutputStream)}.
+ *
+ * The stream starts with the bytes <code>X12B</code>, the version and the
+ * three delimiters. The loops follow in the order they appear in the X12
+ * transaction, each with its name, the number of its segments, its segments
+ * and the number of its child loops.
+ *
+ * A segment is the number of its elements, a code for each element and a
+ * block holding the characters of the other elements in ISO-8859-1. Loop
+ * names, segment ids and elements of up to {@link #DICTIONARY_LENGTH}
+ * characters, mostly qualifiers and codes, are written once in a code and
+ * then referred to by their position in a dictionary built as the stream is
+ * read. Elements with characters outside of ISO-8859-1 are written in a
+ * code as well. The segments read are backed by chunks of bytes holding the
+ * elements as they appear in the X12 transaction, the same way segments
+ * parsed from a <code>ByteBuffer</code> are, the element strings are only
+ * created when they are read.
+ *
+ * A code is a number v: 0 for null, 1 for a new dictionary entry followed
+ * by its UTF-8 length and bytes, 2k + 1 for the dictionary entry k - 1, 2k
+ * for k - 1 characters in the block. Numbers are written as unsigned
+ * variable length integers, 7 bits a byte.
+ *
+ * @author Prasad Balan
+ */
+final class X12Binary {
+
+	private static final byte[] MAGIC = { 'X', '1', '2', 'B' };
+	private static final int VERSION = 1;
+	private static final int BUFFER_SIZE = 8192;
+	private static final int CHUNK_SIZE = 1 << 16;
+	private static final int DICTIONARY_LENGTH = 3;
+
+	private X12Binary() {
+	}
+
+	/**
+	 * Writes the X12 object. The stream is flushed but not closed.
+	 *
+	 * @param x12
+	 *            X12
+	 * @param out
+	 *            OutputStream
+	 * @throws IOException
+	 */
+	static void write(X12 x12, OutputStream out) throws IOException {
+		Encoder encoder = new Encoder(out);
+		for (byte b : MAGIC) {
+			encoder.writeByte(b);
+		}
+		encoder.writeByte(VERSION);
+		Context context = x12.getContext();
+		encoder.writeString(String.valueOf(new char[] { context.getSegmentSeparator(),
+				context.getElementSeparator(), context.getCompositeElementSeparator() }));
+		LoopIterator walk = new LoopIterator(x12);
+		int event;
+		while ((event = walk.step()) != LoopIterator.END) {
+			if (event == LoopIterator.ENTER) {
+				Loop loop = walk.current();
+				encoder.writeShared(loop.getName());
+				List<Segment> segments = loop.getSegments();
+				encoder.writeInt(segments.size());
+				for (int i = 0; i < segments.size(); i++) {
+					encoder.writeSegment(segments.get(i));
+				}
+				encoder.writeInt(loop.getLoops().size());
+			}
+		}
+		encoder.flush();
+	}
+
+	/**
+	 * Reads a X12 object written by {@link #write(X12, OutputStream)}. The
+	 * stream is read in chunks and is not closed.
+	 *
+	 * @param in
+	 *            InputStream
+	 * @return X12
+	 * @throws IOException
+	 *             if the stream is not a X12 object, or ends early
+	 */
+	static X12 read(InputStream in) throws IOException {
+		Decoder decoder = new Decoder(in);
+		for (byte b : MAGIC) {
+			if (decoder.readByte() != b) {
+				throw new IOException("Not a binary X12 stream");
+			}
+		}
+		int version = decoder.readByte();
+		if (version != VERSION) {
+			throw new IOException("Unsupported binary X12 version " + version);
+		}
+		String delimiters = decoder.readString();
+		if (delimiters.length() != 3) {
+			throw new IOException("Malformed binary X12 stream");
+		}
+		Context context = new Context(delimiters.charAt(0), delimiters.charAt(1),
+				delimiters.charAt(2));
+		decoder.separator = (byte) delimiters.charAt(1);
+		X12 x12 = new X12(context);
+		x12.setName(decoder.readShared());
+		// the loops being read and the number of child loops left to read
+		Loop[] path = new Loop[8];
+		int[] remaining = new int[8];
+		int depth = 0;
+		path[0] = x12;
+		remaining[0] = readLoop(decoder, x12);
+		while (depth >= 0) {
+			if (remaining[depth] == 0) {
+				path[depth--] = null;
+				continue;
+			}
+			remaining[depth]--;
+			Loop loop = path[depth].addChild(decoder.readShared());
+			if (++depth == path.length) {
+				path = Arrays.copyOf(path, path.length * 2);
+				remaining = Arrays.copyOf(remaining, remaining.length * 2);
+			}
+			path[depth] = loop;
+			remaining[depth] = readLoop(decoder, loop);
+		}
+		return x12;
+	}
+
+	/**
+	 * Reads the segments of the loop and returns the number of its child
+	 * loops.
+	 */
+	private static int readLoop(Decoder decoder, Loop loop) throws IOException {
+		Context context = loop.getContext();
+		for (int i = decoder.readInt(); i > 0; i--) {
+			loop.addSegment(new Segment(context, decoder.readElements()));
+		}
+		return decoder.readInt();
+	}
+
+	private static boolean isLatin1(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			if (s.charAt(i) > 0xFF) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static final class Encoder {
+
+		private final OutputStream out;
+		private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+		private byte[] buffer = new byte[BUFFER_SIZE];
+		private int count;
+
+		Encoder(OutputStream out) {
+			this.out = out;
+		}
+
+		private void ensure(int length) throws IOException {
+			if (count + length > buffer.length) {
+				out.write(buffer, 0, count);
+				count = 0;
+				if (length > buffer.length) {
+					buffer = new byte[length];
+				}
+			}
+		}
+
+		void writeByte(int b) throws IOException {
+			ensure(1);
+			buffer[count++] = (byte) b;
+		}
+
+		void writeInt(int n) throws IOException {
+			ensure(5);
+			while ((n & ~0x7f) != 0) {
+				buffer[count++] = (byte) ((n & 0x7f) | 0x80);
+				n >>>= 7;
+			}
+			buffer[count++] = (byte) n;
+		}
+
+		void writeString(String s) throws IOException {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			writeInt(bytes.length);
+			ensure(bytes.length);
+			System.arraycopy(bytes, 0, buffer, count, bytes.length);
+			count += bytes.length;
+		}
+
+		/**
+		 * Writes the code of a value looked up in the dictionary, or added to
+		 * it.
+		 */
+		void writeShared(String s) throws IOException {
+			if (s == null) {
+				writeInt(0);
+				return;
+			}
+			Integer index = dictionary.get(s);
+			if (index != null) {
+				writeInt(((index + 1) << 1) | 1);
+				return;
+			}
+			dictionary.put(s, dictionary.size());
+			writeInt(1);
+			writeString(s);
+		}
+
+		void writeSegment(Segment segment) throws IOException {
+			int size = segment.size();
+			writeInt(size);
+			int block = 0;
+			for (int j = 0; j < size; j++) {
+				String e = segment.getElement(j);
+				if (e == null || j == 0 || e.length() <= DICTIONARY_LENGTH || !isLatin1(e)) {
+					writeShared(e);
+				} else {
+					writeInt((e.length() + 1) << 1);
+					block += e.length();
+				}
+			}
+			ensure(block);
+			for (int j = 0; j < size; j++) {
+				String e = segment.getElement(j);
+				if (e != null && j > 0 && e.length() > DICTIONARY_LENGTH && isLatin1(e)) {
+					for (int i = 0; i < e.length(); i++) {
+						buffer[count++] = (byte) e.charAt(i);
+					}
+				}
+			}
+		}
+
+		void flush() throws IOException {
+			out.write(buffer, 0, count);
+			count = 0;
+			out.flush();
+		}
+	}
+
+	private static final class Decoder {
+
+		private final InputStream in;
+		private final List<String> dictionary = new ArrayList<String>();
+		// the ISO-8859-1 bytes of the dictionary entries, null for the others
+		private final List<byte[]> dictionaryBytes = new ArrayList<byte[]>();
+		private byte[] data = new byte[BUFFER_SIZE];
+		private int pos;
+		private int length;
+		private byte[] chunk = new byte[0];
+		private ByteBuffer chunkBuffer;
+		private int chunkPos;
+		byte separator;
+
+		Decoder(InputStream in) {
+			this.in = in;
+		}
+
+		/**
+		 * Reads the stream until n bytes are available from pos.
+		 */
+		private void fill(int n) throws IOException {
+			int size = length - pos;
+			if (n > data.length) {
+				data = Arrays.copyOfRange(data, pos, pos + Math.max(n, data.length * 2));
+			} else {
+				System.arraycopy(data, pos, data, 0, size);
+			}
+			pos = 0;
+			length = size;
+			while (length < n) {
+				int read = in.read(data, length, data.length - length);
+				if (read == -1) {
+					throw new EOFException();
+				}
+				length += read;
+			}
+		}
+
+		int readByte() throws IOException {
+			if (pos == length) {
+				fill(1);
+			}
+			return data[pos++] & 0xff;
+		}
+
+		int readInt() throws IOException {
+			int n = 0;
+			for (int shift = 0; shift < 32; shift += 7) {
+				if (pos == length) {
+					fill(1);
+				}
+				int b = data[pos++];
+				n |= (b & 0x7f) << shift;
+				if (b >= 0) {
+					return n;
+				}
+			}
+			throw new IOException("Malformed binary X12 stream");
+		}
+
+		String readString() throws IOException {
+			int size = readInt();
+			if (size < 0) {
+				throw new IOException("Malformed binary X12 stream");
+			}
+			if (size > length - pos) {
+				fill(size);
+			}
+			String s = new String(data, pos, size, StandardCharsets.UTF_8);
+			pos += size;
+			return s;
+		}
+
+		/**
+		 * Returns the position in the dictionary of a dictionary code, reading
+		 * the new entry.
+		 */
+		private int readCode(int v) throws IOException {
+			if (v == 1) {
+				String s = readString();
+				dictionary.add(s);
+				dictionaryBytes.add(isLatin1(s) ? s.getBytes(StandardCharsets.ISO_8859_1) : null);
+				return dictionary.size() - 1;
+			}
+			int k = (v >>> 1) - 1;
+			if (k >= dictionary.size()) {
+				throw new IOException("Malformed binary X12 stream");
+			}
+			return k;
+		}
+
+		String readShared() throws IOException {
+			int v = readInt();
+			if (v == 0) {
+				return null;
+			}
+			if ((v & 1) == 0) {
+				throw new IOException("Malformed binary X12 stream");
+			}
+			return dictionary.get(readCode(v));
+		}
+
+		/**
+		 * Reads the elements of a segment. The characters of the elements are
+		 * copied to the current chunk, each followed by the element separator,
+		 * and the list returned is backed by the chunk. The rare segments
+		 * holding null elements are read as a list of strings.
+		 */
+		List<String> readElements() throws IOException {
+			int count = readInt();
+			if (count < 0) {
+				throw new IOException("Malformed binary X12 stream");
+			}
+			// the codes are kept in starts until the block is read
+			int[] starts = new int[count + 1];
+			int block = 0;
+			int size = count;
+			boolean nulls = false;
+			boolean strings = false;
+			for (int j = 0; j < count; j++) {
+				int v = readInt();
+				if (v == 0) {
+					nulls = true;
+				} else if ((v & 1) == 0) {
+					block += (v >>> 1) - 1;
+					size += (v >>> 1) - 1;
+				} else {
+					v = readCode(v) << 1 | 1;
+					byte[] bytes = dictionaryBytes.get(v >>> 1);
+					if (bytes != null) {
+						size += bytes.length;
+					} else {
+						strings = true;
+					}
+				}
+				starts[j] = v;
+			}
+			if (block < 0 || size < 0) {
+				throw new IOException("Malformed binary X12 stream");
+			}
+			if (block > length - pos) {
+				fill(block);
+			}
+			if (nulls) {
+				return readStrings(starts, count);
+			}
+			if (size > chunk.length - chunkPos) {
+				chunk = new byte[Math.max(size, CHUNK_SIZE)];
+				chunkBuffer = ByteBuffer.wrap(chunk);
+				chunkPos = 0;
+			}
+			String[] elements = strings ? new String[count] : null;
+			for (int j = 0; j < count; j++) {
+				int v = starts[j];
+				starts[j] = chunkPos;
+				if ((v & 1) == 0) {
+					int n = (v >>> 1) - 1;
+					System.arraycopy(data, pos, chunk, chunkPos, n);
+					pos += n;
+					chunkPos += n;
+				} else {
+					byte[] bytes = dictionaryBytes.get(v >>> 1);
+					if (bytes != null) {
+						System.arraycopy(bytes, 0, chunk, chunkPos, bytes.length);
+						chunkPos += bytes.length;
+					} else {
+						elements[j] = dictionary.get(v >>> 1);
+					}
+				}
+				chunk[chunkPos++] = separator;
+			}
+			starts[count] = chunkPos;
+			return new ByteElements(chunkBuffer, starts, strings ? elements : null);
+		}
+
+		private List<String> readStrings(int[] codes, int count) {
+			String[] elements = new String[count];
+			for (int j = 0; j < count; j++) {
+				int v = codes[j];
+				if (v == 0) {
+					continue;
+				}
+				if ((v & 1) == 0) {
+					int n = (v >>> 1) - 1;
+					elements[j] = new String(data, pos, n, StandardCharsets.ISO_8859_1);
+					pos += n;
+				} else {
+					elements[j] = dictionary.get(v >>> 1);
+				}
+			}
+			return Arrays.asList(elements);
+		}
+	}
+}
@@ -0,0 +1,606 @@
+/*
+   Copyright [2011] [Prasad Balan]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.pb.x12;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * The class generates synthetic 835 and 837 interchanges to load test the
+ * parsers. The interchanges have the segments of the 835 and 837 Cf files of
+ * the examples, with names, identifiers, dates and amounts drawn from a
+ * random generator, and the control numbers and segment counts of the
+ * envelopes set. The same seed and settings always generate the same
+ * characters.
+ *
+ * The interchanges are written segment by segment, the size of the output
+ * does not depend on the memory available.
+ *
+ * <pre>
+ * X12Generator generator = new X12Generator(&quot;835&quot;);
+ * generator.setClaims(100000);
+ * generator.setContext(new Context('&circ;', '*', ':'));
+ * generator.setLineSeparator(&quot;\n&quot;);
+ * generator.write(new File(&quot;835.txt&quot;));
+ * </pre>
+ *
+ * From the command line:
+ *
+ * <pre>
+ * java -cp x12.jar org.pb.x12.X12Generator 837 837.txt claims=1000000 separators=&circ;*:
+ * </pre>
+ *
+ * @author Prasad Balan
+ */
+public class X12Generator {
+
+	private static final String[] LAST_NAMES = { "SMITH", "JOHNSON", "WILLIAMS", "BROWN", "JONES", "MILLER",
+			"DAVIS", "GARCIA", "WILSON", "MOORE", "TAYLOR", "ANDERSON", "THOMAS", "JACKSON", "WHITE", "HARRIS" };
+	private static final String[] FIRST_NAMES = { "JAMES", "MARY", "JOHN", "PATRICIA", "ROBERT", "JENNIFER",
+			"MICHAEL", "LINDA", "WILLIAM", "ELIZABETH", "DAVID", "BARBARA", "RICHARD", "SUSAN" };
+	private static final String[] STREETS = { "MAIN STREET", "SIDE STREET", "OAK AVENUE", "PINE ROAD",
+			"MAPLE DRIVE", "CEDAR LANE", "ELM COURT", "HILL ROAD" };
+	private static final String[] CITIES = { "SHINE CITY", "GREEN TOWN", "RIVER FALLS", "LAKE VIEW",
+			"SPRINGFIELD", "FAIRVIEW" };
+	private static final String[] PROCEDURES = { "99211", "99212", "99213", "99214", "99215", "36415",
+			"80053", "85025", "71020", "93000" };
+	private static final String[] DIAGNOSES = { "4019", "25000", "2724", "4280", "41401", "4660", "7840",
+			"78650" };
+
+	private final String type;
+	private long seed;
+	private int interchanges = 1;
+	private int groups = 1;
+	private int transactions = 1;
+	private int claims = 10;
+	private int serviceLines = 2;
+	private char segmentSeparator = '~';
+	private char elementSeparator = '*';
+	private char compositeElementSeparator = ':';
+	private String lineSeparator = "";
+
+	/**
+	 * The constructor takes the transaction set to generate.
+	 *
+	 * @param type
+	 *            "835" or "837"
+	 */
+	public X12Generator(String type) {
+		if (!"835".equals(type) && !"837".equals(type)) {
+			throw new IllegalArgumentException("Type: " + type);
+		}
+		this.type = type;
+	}
+
+	/**
+	 * Returns the transaction set generated.
+	 *
+	 * @return "835" or "837"
+	 */
+	public String getType() {
+		return type;
+	}
+
+	/**
+	 * Sets the seed of the random generator, 0 by default.
+	 *
+	 * @param seed
+	 *            long
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Sets the number of ISA/IEA interchanges, 1 by default.
+	 *
+	 * @param interchanges
+	 *            int
+	 */
+	public void setInterchanges(int interchanges) {
+		this.interchanges = positive("Interchanges", interchanges);
+	}
+
+	/**
+	 * Sets the number of GS/GE functional groups in each interchange, 1 by
+	 * default.
+	 *
+	 * @param groups
+	 *            int
+	 */
+	public void setGroups(int groups) {
+		this.groups = positive("Groups", groups);
+	}
+
+	/**
+	 * Sets the number of ST/SE transaction sets in each functional group, 1 by
+	 * default.
+	 *
+	 * @param transactions
+	 *            int
+	 */
+	public void setTransactions(int transactions) {
+		this.transactions = positive("Transactions", transactions);
+	}
+
+	/**
+	 * Sets the number of claims in each transaction set, 10 by default.
+	 *
+	 * @param claims
+	 *            int
+	 */
+	public void setClaims(int claims) {
+		this.claims = positive("Claims", claims);
+	}
+
+	/**
+	 * Sets the number of service lines of each claim, 2 by default.
+	 *
+	 * @param serviceLines
+	 *            int
+	 */
+	public void setServiceLines(int serviceLines) {
+		this.serviceLines = positive("Service lines", serviceLines);
+	}
+
+	/**
+	 * Sets the separators, <code>~ * :</code> by default. The separators must
+	 * be different and cannot be a letter, a digit, a space or a period, the
+	 * characters of the elements generated.
+	 *
+	 * @param context
+	 *            Context
+	 */
+	public void setContext(Context context) {
+		char s = context.getSegmentSeparator();
+		char e = context.getElementSeparator();
+		char c = context.getCompositeElementSeparator();
+		if (s == e || s == c || e == c || !separator(s) || !separator(e) || !separator(c)) {
+			throw new IllegalArgumentException("Separators: " + context);
+		}
+		this.segmentSeparator = s;
+		this.elementSeparator = e;
+		this.compositeElementSeparator = c;
+	}
+
+	/**
+	 * Sets the characters written after each segment separator, "", "\n" or
+	 * "\r\n". Nothing is written by default.
+	 *
+	 * @param lineSeparator
+	 *            String
+	 */
+	public void setLineSeparator(String lineSeparator) {
+		if (!"".equals(lineSeparator) && !"\n".equals(lineSeparator) && !"\r\n".equals(lineSeparator)) {
+			throw new IllegalArgumentException("Line separator");
+		}
+		this.lineSeparator = lineSeparator;
+	}
+
+	private static int positive(String name, int value) {
+		if (value < 1) {
+			throw new IllegalArgumentException(name + ": " + value);
+		}
+		return value;
+	}
+
+	private static boolean separator(char c) {
+		return !Character.isLetterOrDigit(c) && c != ' ' && c != '.' && c != '\r' && c != '\n';
+	}
+
+	/**
+	 * Writes the interchanges to the file.
+	 *
+	 * @param file
+	 *            File
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			write(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the interchanges to the stream as ISO-8859-1 through a buffer.
+	 * The stream is flushed but not closed.
+	 *
+	 * @param out
+	 *            OutputStream
+	 * @throws IOException
+	 */
+	public void write(OutputStream out) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.ISO_8859_1), 1 << 16);
+		write(writer);
+		writer.flush();
+	}
+
+	/**
+	 * Writes the interchanges to the Appendable.
+	 *
+	 * @param out
+	 *            Appendable
+	 * @throws IOException
+	 */
+	public void write(Appendable out) throws IOException {
+		new Output(out).write();
+	}
+
+	/**
+	 * Returns the interchanges in a String, for the small ones.
+	 *
+	 * @return String
+	 */
+	public String generate() {
+		return Dump.toString(this::write);
+	}
+
+	/**
+	 * Writes the segments of one call to write(), with the random generators
+	 * and the control numbers of the call.
+	 */
+	private final class Output {
+
+		private final Appendable out;
+		private final StringBuilder segment = new StringBuilder(128);
+		private final Random random = new Random(seed);
+		private final long[] charges = new long[serviceLines];
+		private final long[] payments = new long[serviceLines];
+		private Random amounts;
+		private int segments;
+		private int groupControl;
+		private long claimNumber;
+
+		Output(Appendable out) {
+			this.out = out;
+		}
+
+		void write() throws IOException {
+			for (int i = 1; i <= interchanges; i++) {
+				start("ISA").element("00").element("          ").element("00").element("          ");
+				element("ZZ").element("SENDERID       ").element("ZZ").element("RECEIVERID     ");
+				element("030409").element("0701").element("U").element("00401").element(i, 9);
+				element("0").element("T");
+				segment.append(elementSeparator).append(compositeElementSeparator);
+				end();
+				for (int j = 0; j < groups; j++) {
+					group(++groupControl);
+				}
+				start("IEA").element(groups).element(i, 9);
+				end();
+			}
+		}
+
+		private void group(int control) throws IOException {
+			start("GS").element("835".equals(type) ? "HP" : "HC").element("SENDERID").element("RECEIVERID");
+			element("20030409").element("0701").element(control).element("X");
+			element("835".equals(type) ? "004010X091A1" : "004010X098A1");
+			end();
+			for (int i = 1; i <= transactions; i++) {
+				segments = 0;
+				if ("835".equals(type)) {
+					transaction835(i);
+				} else {
+					transaction837(i);
+				}
+				start("SE").element(segments + 1).element(i, 4);
+				end();
+			}
+			start("GE").element(transactions).element(control);
+			end();
+		}
+
+		private void transaction835(int control) throws IOException {
+			// the amounts are drawn twice, to write the total before the claims
+			long amountSeed = random.nextLong();
+			amounts = new Random(amountSeed);
+			long total = 0;
+			for (int i = 0; i < claims; i++) {
+				drawServiceLines();
+				for (int j = 0; j < serviceLines; j++) {
+					total += payments[j];
+				}
+			}
+			amounts = new Random(amountSeed);
+
+			start("ST").element("835").element(control, 4);
+			end();
+			start("BPR").element("I").amount(total).element("C").element("CHK").empty(11).date();
+			end();
+			start("TRN").element("1").element(100000000 + random.nextInt(900000000)).element("1512345678");
+			end();
+			start("DTM").element("405").date();
+			end();
+			start("N1").element("PR").element(pick(LAST_NAMES)).append(" INSURANCE COMPANY");
+			end();
+			address();
+			start("N1").element("PE").element(pick(LAST_NAMES)).append(" CLINIC").element("XX");
+			element(1000000000 + random.nextInt(900000000));
+			end();
+			address();
+			for (int i = 0; i < claims; i++) {
+				if (i % 10 == 0) {
+					start("LX").element(i / 10 + 1);
+					end();
+				}
+				claim835();
+			}
+		}
+
+		private void claim835() throws IOException {
+			long number = ++claimNumber;
+			drawServiceLines();
+			long charge = 0;
+			long paid = 0;
+			for (int j = 0; j < serviceLines; j++) {
+				charge += charges[j];
+				paid += payments[j];
+			}
+			start("CLP").element("PCN").append(number).element("1").amount(charge).amount(paid).empty(1);
+			element("MC").element("CCN").append(number).element("11");
+			end();
+			start("NM1").element("QC").element("1").element(pick(LAST_NAMES)).element(pick(FIRST_NAMES)).empty(3);
+			element("MI").element(100000000 + random.nextInt(900000000));
+			end();
+			start("DTM").element("232").date();
+			end();
+			for (int j = 0; j < serviceLines; j++) {
+				start("SVC").element("HC").composite(pick(PROCEDURES)).amount(charges[j]).amount(payments[j]);
+				empty(1).element(1 + random.nextInt(4));
+				end();
+				start("DTM").element("472").date();
+				end();
+				if (payments[j] < charges[j]) {
+					start("CAS").element("CO").element("45").amount(charges[j] - payments[j]);
+					end();
+				}
+				start("AMT").element("B6").amount(payments[j]);
+				end();
+			}
+		}
+
+		private void transaction837(int control) throws IOException {
+			amounts = random;
+			start("ST").element("837").element(control, 4);
+			end();
+			start("BHT").element("0019").element("00").element(control, 4).element("20030409").element("0701");
+			element("CH");
+			end();
+			start("REF").element("87").element("004010X098A1");
+			end();
+			start("NM1").element("41").element("2").element("SUBMITTER").empty(4).element("46").element("12345");
+			end();
+			start("PER").element("IC").element("CONTACT").element("TE").element("5555551212");
+			end();
+			start("NM1").element("40").element("2").element("RECEIVER").empty(4).element("46").element("67890");
+			end();
+			start("HL").element("1").empty(1).element("20").element("1");
+			end();
+			start("NM1").element("85").element("2").element(pick(LAST_NAMES)).append(" CLINIC").empty(4);
+			element("24").element(100000000 + random.nextInt(900000000));
+			end();
+			address();
+			start("REF").element("1G").element("A").append(10000 + random.nextInt(90000));
+			end();
+			for (int i = 0; i < claims; i++) {
+				claim837(i + 2);
+			}
+		}
+
+		private void claim837(int hl) throws IOException {
+			long number = ++claimNumber;
+			start("HL").element(hl).element("1").element("22").element("0");
+			end();
+			start("SBR").element("P").element("18").empty(6).element("MB");
+			end();
+			start("NM1").element("IL").element("1").element(pick(LAST_NAMES)).element(pick(FIRST_NAMES)).empty(3);
+			element("MI").element(100000000 + random.nextInt(900000000)).append('A');
+			end();
+			address();
+			start("DMG").element("D8").element("19").append(20 + random.nextInt(80));
+			date(random.nextInt(12) + 1, random.nextInt(28) + 1).element(random.nextBoolean() ? "M" : "F");
+			end();
+			start("NM1").element("PR").element("2").element(pick(LAST_NAMES)).append(" INSURANCE").empty(4);
+			element("PI").element("00435");
+			end();
+			drawServiceLines();
+			long charge = 0;
+			for (int j = 0; j < serviceLines; j++) {
+				charge += charges[j];
+			}
+			start("CLM").element("PCN").append(number).amount(charge).empty(2).element("11").composite("");
+			composite("1").element("Y").element("A").element("Y").element("Y").element("C");
+			end();
+			start("HI").element("BK").composite(pick(DIAGNOSES));
+			end();
+			start("NM1").element("82").element("1").element(pick(LAST_NAMES)).element(pick(FIRST_NAMES)).empty(3);
+			element("24").element(100000000 + random.nextInt(900000000));
+			end();
+			for (int j = 0; j < serviceLines; j++) {
+				start("LX").element(j + 1);
+				end();
+				start("SV1").element("HC").composite(pick(PROCEDURES)).amount(charges[j]).element("UN");
+				element(1 + random.nextInt(4)).empty(2).element("1");
+				end();
+				start("DTP").element("472").element("D8").date();
+				end();
+			}
+		}
+
+		/**
+		 * Draws the charge and the payment, in cents, of the service lines of
+		 * a claim.
+		 */
+		private void drawServiceLines() {
+			for (int j = 0; j < serviceLines; j++) {
+				charges[j] = 2000 + amounts.nextInt(48000);
+				payments[j] = charges[j] * (50 + amounts.nextInt(51)) / 100;
+			}
+		}
+
+		private void address() throws IOException {
+			start("N3").element(1 + random.nextInt(9999)).append(' ').append(pick(STREETS));
+			end();
+			start("N4").element(pick(CITIES)).element("GS").element(10000 + random.nextInt(90000));
+			end();
+		}
+
+		private String pick(String[] values) {
+			return values[random.nextInt(values.length)];
+		}
+
+		private Output start(String id) {
+			segment.append(id);
+			return this;
+		}
+
+		private Output element(String value) {
+			segment.append(elementSeparator).append(value);
+			return this;
+		}
+
+		private Output element(long value) {
+			segment.append(elementSeparator).append(value);
+			return this;
+		}
+
+		/**
+		 * Appends a number padded with zeros to the width.
+		 */
+		private Output element(long value, int width) {
+			segment.append(elementSeparator);
+			for (long n = value; width > 1; width--, n /= 10) {
+				if (n < 10) {
+					segment.append('0');
+				}
+			}
+			segment.append(value);
+			return this;
+		}
+
+		private Output empty(int count) {
+			for (int i = 0; i < count; i++) {
+				segment.append(elementSeparator);
+			}
+			return this;
+		}
+
+		private Output composite(String value) {
+			segment.append(compositeElementSeparator).append(value);
+			return this;
+		}
+
+		private Output append(String value) {
+			segment.append(value);
+			return this;
+		}
+
+		private Output append(long value) {
+			segment.append(value);
+			return this;
+		}
+
+		private Output append(char value) {
+			segment.append(value);
+			return this;
+		}
+
+		/**
+		 * Appends an amount in cents as dollars with two decimals.
+		 */
+		private Output amount(long cents) {
+			segment.append(elementSeparator).append(cents / 100).append('.');
+			if (cents % 100 < 10) {
+				segment.append('0');
+			}
+			segment.append(cents % 100);
+			return this;
+		}
+
+		private Output date() {
+			segment.append(elementSeparator).append("2003");
+			return date(random.nextInt(12) + 1, random.nextInt(28) + 1);
+		}
+
+		private Output date(int month, int day) {
+			segment.append(month < 10 ? "0" : "").append(month).append(day < 10 ? "0" : "").append(day);
+			return this;
+		}
+
+		private void end() throws IOException {
+			segment.append(segmentSeparator).append(lineSeparator);
+			out.append(segment);
+			segment.setLength(0);
+			segments++;
+		}
+	}
+
+	/**
+	 * Writes the interchanges to a file. The arguments are the type, the file
+	 * and settings as name=value: seed, interchanges, groups, transactions,
+	 * claims, serviceLines, separators (the segment, element and composite
+	 * element separators, e.g. "~*:") and newline (true to write a line break
+	 * after each segment).
+	 *
+	 * @param args
+	 *            String[]
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: X12Generator 835|837 file [seed=0] [interchanges=1] [groups=1]"
+					+ " [transactions=1] [claims=10] [serviceLines=2] [separators=~*:] [newline=false]");
+			System.exit(1);
+		}
+		X12Generator generator = new X12Generator(args[0]);
+		for (int i = 2; i < args.length; i++) {
+			int eq = args[i].indexOf('=');
+			String name = eq < 0 ? args[i] : args[i].substring(0, eq);
+			String value = eq < 0 ? "" : args[i].substring(eq + 1);
+			if (name.equals("seed")) {
+				generator.setSeed(Long.parseLong(value));
+			} else if (name.equals("interchanges")) {
+				generator.setInterchanges(Integer.parseInt(value));
+			} else if (name.equals("groups")) {
+				generator.setGroups(Integer.parseInt(value));
+			} else if (name.equals("transactions")) {
+				generator.setTransactions(Integer.parseInt(value));
+			} else if (name.equals("claims")) {
+				generator.setClaims(Integer.parseInt(value));
+			} else if (name.equals("serviceLines")) {
+				generator.setServiceLines(Integer.parseInt(value));
+			} else if (name.equals("separators") && value.length() == 3) {
+				generator.setContext(new Context(value.charAt(0), value.charAt(1), value.charAt(2)));
+			} else if (name.equals("newline")) {
+				generator.setLineSeparator(Boolean.parseBoolean(value) ? "\n" : "");
+			} else {
+				throw new IllegalArgumentException("Argument: " + args[i]);
+			}
+		}
+		generator.write(new File(args[1]));
+	}
+}
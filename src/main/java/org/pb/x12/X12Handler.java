@@ -0,0 +1,85 @@
+/*
+   Copyright [2011] [Prasad Balan]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.pb.x12;
+
+/**
+ * Receives the loops and segments of a X12 transaction as
+ * <code>X12Parser</code> reads them, instead of the parser building a
+ * <code>X12</code> object. Loops are identified with the same <code>Cf</code>
+ * hierarchy, so the calls follow the loop hierarchy the parser would have
+ * built. Nothing is kept by the parser between calls, memory does not grow
+ * with the size of the transaction.
+ * 
+ * <pre>
+ * startInterchange
+ *   segment            (segments before the first loop)
+ *   startLoop ISA
+ *     segment
+ *     startLoop GS
+ *       ...
+ *     endLoop GS
+ *   endLoop ISA
+ * endInterchange
+ * </pre>
+ * 
+ * A handler can stop the parsing by throwing a
+ * <code>RuntimeException</code>.
+ * 
+ * @author Prasad Balan
+ */
+public interface X12Handler {
+
+	/**
+	 * Called before the first segment is read.
+	 * 
+	 * @param context
+	 *            the delimiters read from the ISA segment
+	 */
+	void startInterchange(Context context);
+
+	/**
+	 * Called when a segment starts a new loop, before the segment is
+	 * reported.
+	 * 
+	 * @param cf
+	 *            the Cf that identified the loop
+	 */
+	void startLoop(Cf cf);
+
+	/**
+	 * Called for each segment, in the order they are read. The segment
+	 * belongs to the loop started last and not yet ended.
+	 * 
+	 * @param segment
+	 *            Segment
+	 */
+	void segment(Segment segment);
+
+	/**
+	 * Called when a loop ends, because a segment starts a loop that is not a
+	 * child of it or because the end of the transaction has been reached.
+	 * 
+	 * @param cf
+	 *            the Cf that identified the loop
+	 */
+	void endLoop(Cf cf);
+
+	/**
+	 * Called after the last segment and the loops that were open have ended.
+	 */
+	void endInterchange();
+}
@@ -16,42 +16,119 @@
  */
 package org.pb.x12;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.util.Scanner;
-import java.util.regex.Pattern;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * The class represents methods used to translate a X12 transaction represented
  * as a file or string into an X12 object.
- * 
+ *
+ * Each parse method has a variant that takes a {@link X12Handler}. It reports
+ * the loops and segments to the handler as they are read, instead of building
+ * the X12 object.
+ *
+ * A parser holds no state between calls, the state of a parse is local to the
+ * call. Once created, a parser and its compiled Cf hierarchy can be shared by
+ * any number of threads.
+ *
  * @author Prasad Balan
  */
 public class X12Parser implements Parser {
 
-	private static final int SIZE = 106;
+	static final int SIZE = 106;
 	public static final int POS_SEGMENT = 105;
 	public static final int POS_ELEMENT = 3;
 	public static final int POS_COMPOSITE_ELEMENT = 104;
 
-	private Cf x12Cf;
-	private Cf cfMarker;
-	private Loop loopMarker;
+	private final CompiledCf x12Cf;
+	private final TransactionSetParser transactionSets;
+	private final boolean intern;
 
+	/**
+	 * The constructor takes the root of the Cf hierarchy used to identify the
+	 * loops. The hierarchy is compiled once, changes made to it after the
+	 * parser is created are not seen by the parser.
+	 *
+	 * @param cf
+	 *            the root of the Cf hierarchy
+	 */
 	public X12Parser(Cf cf) {
+		this(cf.compile(), false);
+	}
+
+	/**
+	 * The constructor takes the root of the Cf hierarchy used to identify the
+	 * loops, and whether short element values are interned. When interned,
+	 * each parse keeps a bounded table of the segment ids, qualifiers and
+	 * other short values of the segments it creates, and the segments of the
+	 * X12 object share one <code>String</code> instance of each value. The
+	 * segment ids of the segments that start a loop are the instances
+	 * returned by <code>Cf.getSegment()</code>. The values are interned
+	 * while parsing, the table is dropped when the parse returns.
+	 *
+	 * @param cf
+	 *            the root of the Cf hierarchy
+	 * @param intern
+	 *            true to intern short element values
+	 */
+	public X12Parser(Cf cf, boolean intern) {
+		this(cf.compile(), intern);
+	}
+
+	/**
+	 * The constructor takes a compiled Cf hierarchy, which can be shared by
+	 * several parsers.
+	 *
+	 * @param cf
+	 *            CompiledCf
+	 */
+	public X12Parser(CompiledCf cf) {
+		this(cf, false);
+	}
+
+	/**
+	 * The constructor takes a compiled Cf hierarchy, and whether short
+	 * element values are interned, see {@link #X12Parser(Cf, boolean)}.
+	 *
+	 * @param cf
+	 *            CompiledCf
+	 * @param intern
+	 *            true to intern short element values
+	 */
+	public X12Parser(CompiledCf cf, boolean intern) {
 		this.x12Cf = cf;
+		this.transactionSets = new TransactionSetParser(cf);
+		this.intern = intern;
+	}
+
+	/**
+	 * Returns a new intern table for a parse, or null if values are not
+	 * interned.
+	 */
+	private InternTable internTable() {
+		return intern ? new InternTable(InternTable.SIZE, x12Cf.strings()) : null;
 	}
 
 	/**
 	 * The method takes a X12 file and converts it into a X2 object. The X12
 	 * class has methods to convert it into XML format as well as methods to
 	 * modify the contents.
-	 * 
+	 *
+	 * The file is memory mapped and read as ISO-8859-1 characters, see
+	 * {@link #parse(Path)}.
+	 *
 	 * @param fileName
 	 *            a X12 file
 	 * @return the X12 object
@@ -60,62 +137,102 @@ public class X12Parser implements Parser {
 	 */
 	@Override
 	public EDI parse(File fileName) throws FormatException, IOException {
-		final char[] buffer = new char[SIZE];
-		FileReader fr = new FileReader(fileName);
-		int count = fr.read(buffer);
-		fr.close();
-		if (count != SIZE) {
-			throw new FormatException();
+		return parse(fileName.toPath());
+	}
+
+	/**
+	 * The method takes a X12 file and reports its loops and segments to the
+	 * handler.
+	 *
+	 * @param fileName
+	 *            a X12 file
+	 * @param handler
+	 *            X12Handler
+	 * @throws FormatException
+	 * @throws IOException
+	 */
+	public void parse(File fileName, X12Handler handler) throws FormatException, IOException {
+		parse(fileName.toPath(), handler);
+	}
+
+	/**
+	 * The method takes a X12 file and converts it into a X2 object. The file
+	 * is memory mapped and tokenized in place, each byte is read as one
+	 * ISO-8859-1 character. Files larger than 1 GB are mapped one window at a
+	 * time. The segments of the X12 object are backed by the mapping and only
+	 * create the elements that are read, the file should not be modified
+	 * while the X12 object is in use.
+	 *
+	 * @param path
+	 *            a X12 file
+	 * @return the X12 object
+	 * @throws FormatException
+	 * @throws IOException
+	 */
+	public EDI parse(Path path) throws FormatException, IOException {
+		LoopBuilder builder = new LoopBuilder();
+		parse(path, builder);
+		return builder.getX12();
+	}
+
+	/**
+	 * The method takes a X12 file and reports its loops and segments to the
+	 * handler. The file is memory mapped, see {@link #parse(Path)}.
+	 *
+	 * @param path
+	 *            a X12 file
+	 * @param handler
+	 *            X12Handler
+	 * @throws FormatException
+	 * @throws IOException
+	 */
+	public void parse(Path path, X12Handler handler) throws FormatException, IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			scanSource(new MappedTokenizer(channel, MappedTokenizer.WINDOW_SIZE), handler);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			channel.close();
 		}
-		Context context = new Context();
-		context.setSegmentSeparator(buffer[POS_SEGMENT]);
-		context.setElementSeparator(buffer[POS_ELEMENT]);
-		context.setCompositeElementSeparator(buffer[POS_COMPOSITE_ELEMENT]);
-
-		Scanner scanner = new Scanner(fileName);
-		X12 x12 = scanSource(scanner, context);
-		scanner.close();
-		return x12;
-	}
-
-	/**
-	 * private helper method
-	 * @param scanner
-	 * @param context
-	 * @return
-	 */
-	private X12 scanSource(Scanner scanner, Context context) {
-		Character segmentSeparator = context.getSegmentSeparator();
-		String quotedSegmentSeparator = Pattern.quote(segmentSeparator.toString());
-		
-		scanner.useDelimiter(quotedSegmentSeparator + "\r\n|" + quotedSegmentSeparator + "\n|" + quotedSegmentSeparator);
-
-		cfMarker = x12Cf;
-		X12 x12 = new X12(context);
-		loopMarker = x12;
-		Loop loop = x12;
-
-		while (scanner.hasNext()) {
-			String line = scanner.next();
-			String[] tokens = line.split("\\" + context.getElementSeparator());
-			if (doesChildLoopMatch(cfMarker, tokens)) {
-				loop = loop.addChild(cfMarker.getName());
-				loop.addSegment(line);
-			} else if (doesParentLoopMatch(cfMarker, tokens, loop)) {
-				loop = loopMarker.addChild(cfMarker.getName());
-				loop.addSegment(line);
-			} else {
-				loop.addSegment(line);
+	}
+
+	/**
+	 * private helper method. Reports the events of a <code>X12Reader</code>
+	 * over the tokenizer to the handler.
+	 *
+	 * @param tokenizer
+	 * @param handler
+	 * @throws FormatException
+	 */
+	private void scanSource(Tokenizer tokenizer, X12Handler handler) throws FormatException {
+		tokenizer.setInternTable(internTable());
+		X12Reader reader = new X12Reader(x12Cf, tokenizer, null);
+		handler.startInterchange(reader.getContext());
+		while (reader.hasNext()) {
+			switch (reader.next()) {
+			case X12Reader.LOOP_START:
+				handler.startLoop(reader.getCf());
+				break;
+			case X12Reader.SEGMENT:
+				handler.segment(reader.getSegment());
+				break;
+			case X12Reader.LOOP_END:
+				handler.endLoop(reader.getCf());
+				break;
 			}
 		}
-		return x12;
+		handler.endInterchange();
 	}
-	
+
 	/**
 	 * The method takes a InputStream and converts it into a X2 object. The X12
 	 * class has methods to convert it into XML format as well as methods to
 	 * modify the contents.
-	 * 
+	 *
+	 * The stream is decoded with the platform charset and tokenized as it is
+	 * read, it is not held in memory. The stream is not closed.
+	 *
 	 * @param source
 	 *            InputStream
 	 * @return the X12 object
@@ -124,25 +241,37 @@ public class X12Parser implements Parser {
 	 */
 	@Override
 	public EDI parse(InputStream source) throws FormatException, IOException {
-		StringBuilder strBuffer = new StringBuilder();
-		char[] cbuf = new char[1024];
-		int length = -1;
-
-		Reader reader = new BufferedReader(new InputStreamReader(source));
+		LoopBuilder builder = new LoopBuilder();
+		parse(source, builder);
+		return builder.getX12();
+	}
 
-		while ((length = reader.read(cbuf)) != -1) {
-			strBuffer.append(cbuf, 0, length);
+	/**
+	 * The method takes a InputStream and reports its loops and segments to
+	 * the handler. The memory used does not depend on the size of the
+	 * stream.
+	 *
+	 * @param source
+	 *            InputStream
+	 * @param handler
+	 *            X12Handler
+	 * @throws FormatException
+	 * @throws IOException
+	 */
+	public void parse(InputStream source, X12Handler handler) throws FormatException, IOException {
+		Reader reader = new InputStreamReader(source);
+		try {
+			scanSource(new CharTokenizer(reader, CharTokenizer.BUFFER_SIZE), handler);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
 		}
-
-		String strSource = strBuffer.toString();
-		return parse(strSource);
 	}
-		
+
 	/**
 	 * The method takes a X12 string and converts it into a X2 object. The X12
 	 * class has methods to convert it into XML format as well as methods to
 	 * modify the contents.
-	 * 
+	 *
 	 * @param source
 	 *            String
 	 * @return the X12 object
@@ -151,92 +280,366 @@ public class X12Parser implements Parser {
 	 */
 	@Override
 	public EDI parse(String source) throws FormatException {
-		if (source.length() < SIZE) {
+		LoopBuilder builder = new LoopBuilder();
+		parse(source, builder);
+		return builder.getX12();
+	}
+
+	/**
+	 * The method takes a X12 string and reports its loops and segments to the
+	 * handler.
+	 *
+	 * @param source
+	 *            String
+	 * @param handler
+	 *            X12Handler
+	 * @throws FormatException
+	 */
+	public void parse(String source, X12Handler handler) throws FormatException {
+		scanSource(new CharTokenizer(source.toCharArray(), 0, source.length()), handler);
+	}
+
+	/**
+	 * The method takes a <code>ByteBuffer</code> and converts it into a X12
+	 * object. The bytes between the position and the limit of the buffer are
+	 * read as ISO-8859-1 characters without decoding, the buffer can be a heap
+	 * or a direct buffer. The segments of the X12 object are backed by the
+	 * buffer and only create the elements that are read, so the buffer should
+	 * not be modified after parsing.
+	 *
+	 * @param source
+	 *            ByteBuffer
+	 * @return the X12 object
+	 * @throws FormatException
+	 */
+	public EDI parse(ByteBuffer source) throws FormatException {
+		LoopBuilder builder = new LoopBuilder();
+		parse(source, builder);
+		return builder.getX12();
+	}
+
+	/**
+	 * The method takes a <code>ByteBuffer</code> and reports its loops and
+	 * segments to the handler, see {@link #parse(ByteBuffer)}.
+	 *
+	 * @param source
+	 *            ByteBuffer
+	 * @param handler
+	 *            X12Handler
+	 * @throws FormatException
+	 */
+	public void parse(ByteBuffer source, X12Handler handler) throws FormatException {
+		scanSource(new ByteTokenizer(source), handler);
+	}
+
+	/**
+	 * The method takes a <code>ByteBuffer</code> and converts it into a X12
+	 * object, tokenizing it on several threads. The buffer is cut into chunks
+	 * at segment separators, the chunks are broken into segments and elements
+	 * in parallel on the pool, and the segments are then matched to the loops
+	 * in order. The X12 object is the same as the one returned by
+	 * {@link #parse(ByteBuffer)}.
+	 *
+	 * @param source
+	 *            ByteBuffer
+	 * @param pool
+	 *            ForkJoinPool the chunks are tokenized on
+	 * @return the X12 object
+	 * @throws FormatException
+	 */
+	public EDI parse(ByteBuffer source, ForkJoinPool pool) throws FormatException {
+		LoopBuilder builder = new LoopBuilder();
+		scanSource(new ParallelTokenizer(source, pool, ParallelTokenizer.CHUNK_SIZE), builder);
+		return builder.getX12();
+	}
+
+	/**
+	 * The method takes a X12 file and converts it into a X12 object,
+	 * tokenizing it on several threads, see
+	 * {@link #parse(ByteBuffer, ForkJoinPool)}. The file is memory mapped,
+	 * files larger than 1 GB are mapped and tokenized one window at a time.
+	 * Besides the mapped file, the tokenizer holds an index of 4 bytes per
+	 * element and 20 bytes per segment for a batch of 1 MB chunks, one chunk
+	 * per thread of the pool, whatever the size of the file.
+	 *
+	 * @param path
+	 *            a X12 file
+	 * @param pool
+	 *            ForkJoinPool the chunks are tokenized on
+	 * @return the X12 object
+	 * @throws FormatException
+	 * @throws IOException
+	 */
+	public EDI parse(Path path, ForkJoinPool pool) throws FormatException, IOException {
+		LoopBuilder builder = new LoopBuilder();
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			scanSource(new ParallelTokenizer(channel, MappedTokenizer.WINDOW_SIZE, pool,
+					ParallelTokenizer.CHUNK_SIZE), builder);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			channel.close();
+		}
+		return builder.getX12();
+	}
+
+	/**
+	 * The method takes a <code>ByteBuffer</code> holding one or more
+	 * interchanges and parses each interchange into its own X12 object, in
+	 * parallel on the common <code>ForkJoinPool</code>. See
+	 * {@link #parseInterchanges(ByteBuffer, ForkJoinPool)}.
+	 *
+	 * @param source
+	 *            ByteBuffer
+	 * @return the X12 objects, in the order of the interchanges
+	 * @throws FormatException
+	 */
+	public List<X12> parseInterchanges(ByteBuffer source) throws FormatException {
+		return parseInterchanges(source, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * The method takes a <code>ByteBuffer</code> holding one or more
+	 * interchanges and parses each interchange into its own X12 object, in
+	 * parallel on the pool. The interchanges are found by a scan for the ISA
+	 * segments, which does not tokenize the elements. Each X12 object has
+	 * the Context read from its own ISA segment. The bytes are read as
+	 * ISO-8859-1 characters, see {@link #parse(ByteBuffer)}.
+	 *
+	 * @param source
+	 *            ByteBuffer
+	 * @param pool
+	 *            ForkJoinPool the interchanges are parsed on
+	 * @return the X12 objects, in the order of the interchanges
+	 * @throws FormatException
+	 *             if the source does not start with a ISA segment or any of
+	 *             the interchanges cannot be parsed
+	 */
+	public List<X12> parseInterchanges(ByteBuffer source, ForkJoinPool pool) throws FormatException {
+		List<Integer> starts = new ArrayList<Integer>();
+		InterchangeScanner.scan(source, source.position(), source.limit(), starts);
+		if (!starts.isEmpty() && !InterchangeScanner.isISA(source, starts.get(0), source.limit())) {
 			throw new FormatException();
 		}
-		Context context = new Context();
-		context.setSegmentSeparator(source.charAt(POS_SEGMENT));
-		context.setElementSeparator(source.charAt(POS_ELEMENT));
-		context.setCompositeElementSeparator(source.charAt(POS_COMPOSITE_ELEMENT));
+		List<ByteBuffer> interchanges = new ArrayList<ByteBuffer>(starts.size());
+		for (int i = 0; i < starts.size(); i++) {
+			int end = i + 1 < starts.size() ? starts.get(i + 1) : source.limit();
+			interchanges.add(slice(source, starts.get(i), end));
+		}
+		return parseInterchanges(interchanges, pool);
+	}
 
-		Scanner scanner = new Scanner(source);
-		X12 x12 = scanSource(scanner, context);
-		scanner.close();
-		return x12;
+	/**
+	 * The method takes a X12 file holding one or more interchanges and parses
+	 * each interchange into its own X12 object, in parallel on the common
+	 * <code>ForkJoinPool</code>. See
+	 * {@link #parseInterchanges(Path, ForkJoinPool)}.
+	 *
+	 * @param path
+	 *            a X12 file
+	 * @return the X12 objects, in the order of the interchanges
+	 * @throws FormatException
+	 * @throws IOException
+	 */
+	public List<X12> parseInterchanges(Path path) throws FormatException, IOException {
+		return parseInterchanges(path, ForkJoinPool.commonPool());
 	}
- 
+
 	/**
-	 * Checks if the segment (or line read) matches to current loop
-	 * 
-	 * @param cf
-	 *            Cf
-	 * @param tokens
-	 *            String[] represents the segment broken into elements
-	 * @return boolean
-	 */
-	private boolean doesLoopMatch(Cf cf, String[] tokens) {
-		if (cf.getSegment().equals(tokens[0])) {
-			if (null == cf.getSegmentQualPos()) {
-				return true;
-			} else {
-				for (String qual : cf.getSegmentQuals()) {
-					if (qual.equals(tokens[cf.getSegmentQualPos()])) {
-						return true;
-					}
+	 * The method takes a X12 file holding one or more interchanges and parses
+	 * each interchange into its own X12 object, in parallel on the pool. The
+	 * file is memory mapped, see {@link #parse(Path)}. Files larger than 1 GB
+	 * are scanned one window at a time, a single interchange has to fit in a
+	 * window.
+	 *
+	 * @param path
+	 *            a X12 file
+	 * @param pool
+	 *            ForkJoinPool the interchanges are parsed on
+	 * @return the X12 objects, in the order of the interchanges
+	 * @throws FormatException
+	 *             if the file does not start with a ISA segment or any of the
+	 *             interchanges cannot be parsed
+	 * @throws IOException
+	 *             if an interchange is larger than a window
+	 */
+	public List<X12> parseInterchanges(Path path, ForkJoinPool pool) throws FormatException, IOException {
+		return parseInterchanges(path, pool, MappedTokenizer.WINDOW_SIZE);
+	}
+
+	List<X12> parseInterchanges(Path path, ForkJoinPool pool, int windowSize)
+			throws FormatException, IOException {
+		List<ByteBuffer> interchanges = new ArrayList<ByteBuffer>();
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			long offset = 0;
+			while (offset < size) {
+				int length = (int) Math.min(size - offset, windowSize);
+				ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+				List<Integer> starts = new ArrayList<Integer>();
+				InterchangeScanner.scan(window, 0, length, starts);
+				if (!InterchangeScanner.isISA(window, 0, length)) {
+					throw new FormatException();
+				}
+				boolean last = offset + length == size;
+				if (!last && starts.size() == 1) {
+					throw new IOException("Interchange at " + offset
+							+ " is larger than " + windowSize + " bytes");
+				}
+				// the last interchange of a window may continue in the next one
+				int complete = last ? starts.size() : starts.size() - 1;
+				for (int i = 0; i < complete; i++) {
+					int end = i + 1 < starts.size() ? starts.get(i + 1) : length;
+					interchanges.add(slice(window, starts.get(i), end));
 				}
+				if (last) {
+					break;
+				}
+				offset += starts.get(complete);
 			}
+		} finally {
+			channel.close();
 		}
-		return false;
+		return parseInterchanges(interchanges, pool);
 	}
 
 	/**
-	 * Checks if the segment (or line read) matches to any of the child loops
-	 * configuration.
-	 * 
-	 * @param cf
-	 *            Cf
-	 * @param tokens
-	 *            String[] represents the segment broken into elements
-	 * @return boolean
-	 */
-	boolean doesChildLoopMatch(Cf parent, String[] tokens) {
-		for (Cf cf : parent.childList()) {
-			if (doesLoopMatch(cf, tokens)) {
-				cfMarker = cf;
-				return true;
+	 * The method takes a <code>ByteBuffer</code> and converts it into a X12
+	 * object, parsing the transaction sets in parallel on the common
+	 * <code>ForkJoinPool</code>. See
+	 * {@link #parseTransactions(ByteBuffer, ForkJoinPool)}.
+	 *
+	 * @param source
+	 *            ByteBuffer
+	 * @return the X12 object
+	 * @throws FormatException
+	 */
+	public EDI parseTransactions(ByteBuffer source) throws FormatException {
+		return parseTransactions(source, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * The method takes a <code>ByteBuffer</code> and converts it into a X12
+	 * object, parsing the transaction sets in parallel on the pool. The ST
+	 * segments are found with a scan of the segment separators, and runs of
+	 * transaction sets are parsed on separate threads, using the Cf loops
+	 * under the first loop identified by the ST segment. The loops are then
+	 * joined in their original order. The X12 object is the same as the one
+	 * returned by {@link #parse(ByteBuffer)}.
+	 *
+	 * If the ST segments cannot be parsed on their own, for example when the
+	 * Cf hierarchy has no loop for the ST segment, the buffer is parsed
+	 * sequentially.
+	 *
+	 * @param source
+	 *            ByteBuffer
+	 * @param pool
+	 *            ForkJoinPool the transaction sets are parsed on
+	 * @return the X12 object
+	 * @throws FormatException
+	 */
+	public EDI parseTransactions(ByteBuffer source, ForkJoinPool pool) throws FormatException {
+		X12 x12 = transactionSets.parse(source, pool, internTable());
+		return x12 != null ? x12 : parse(source);
+	}
+
+	/**
+	 * The method takes a X12 file and converts it into a X12 object, parsing
+	 * the transaction sets in parallel on the common <code>ForkJoinPool</code>.
+	 * See {@link #parseTransactions(Path, ForkJoinPool)}.
+	 *
+	 * @param path
+	 *            a X12 file
+	 * @return the X12 object
+	 * @throws FormatException
+	 * @throws IOException
+	 */
+	public EDI parseTransactions(Path path) throws FormatException, IOException {
+		return parseTransactions(path, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * The method takes a X12 file and converts it into a X12 object, parsing
+	 * the transaction sets in parallel on the pool, see
+	 * {@link #parseTransactions(ByteBuffer, ForkJoinPool)}. The file is
+	 * memory mapped, files larger than 1 GB are parsed sequentially.
+	 *
+	 * @param path
+	 *            a X12 file
+	 * @param pool
+	 *            ForkJoinPool the transaction sets are parsed on
+	 * @return the X12 object
+	 * @throws FormatException
+	 * @throws IOException
+	 */
+	public EDI parseTransactions(Path path, ForkJoinPool pool) throws FormatException, IOException {
+		ByteBuffer source;
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			if (channel.size() > MappedTokenizer.WINDOW_SIZE) {
+				return parse(path);
 			}
+			source = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			channel.close();
 		}
-		return false;
+		return parseTransactions(source, pool);
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int start, int end) {
+		ByteBuffer slice = buffer.duplicate();
+		slice.limit(end);
+		slice.position(start);
+		return slice;
 	}
 
 	/**
-	 * Checks if the segment (or line read) matches the parent loop
-	 * configuration.
-	 * 
-	 * @param cf
-	 *            Cf
-	 * @param tokens
-	 *            String[] represents the segment broken into elements
-	 * @param loop
-	 *            Loop            
-	 * @return boolean
-	 */
-	private boolean doesParentLoopMatch(Cf child, String[] tokens, Loop loop) {
-		Cf parent = child.getParent();
-		if (parent == null)
-			return false;
-		
-		loopMarker = loop.getParent();
-		for (Cf cf : parent.childList()) {
-			if (doesLoopMatch(cf, tokens)) {
-				cfMarker = cf;
-				return true;
+	 * private helper method. Parses the interchanges on the pool and waits
+	 * for all of them.
+	 */
+	private List<X12> parseInterchanges(List<ByteBuffer> interchanges, ForkJoinPool pool)
+			throws FormatException {
+		List<InterchangeTask> tasks = new ArrayList<InterchangeTask>(interchanges.size());
+		for (ByteBuffer interchange : interchanges) {
+			InterchangeTask task = new InterchangeTask(interchange);
+			pool.execute(task);
+			tasks.add(task);
+		}
+		List<X12> x12s = new ArrayList<X12>(tasks.size());
+		for (InterchangeTask task : tasks) {
+			X12 x12 = task.join();
+			if (task.error != null) {
+				throw task.error;
+			}
+			x12s.add(x12);
+		}
+		return x12s;
+	}
+
+	/**
+	 * Parses one interchange. A format error is kept to be thrown by the
+	 * caller.
+	 */
+	private final class InterchangeTask extends RecursiveTask<X12> {
+		private static final long serialVersionUID = 1L;
+
+		private final ByteBuffer source;
+		private FormatException error;
+
+		InterchangeTask(ByteBuffer source) {
+			this.source = source;
+		}
+
+		@Override
+		protected X12 compute() {
+			try {
+				return (X12) parse(source);
+			} catch (FormatException e) {
+				error = e;
+				return null;
 			}
 		}
-		
-		if (doesParentLoopMatch(parent, tokens, loopMarker))
-			return true;
-		
-		return false;
 	}
 }
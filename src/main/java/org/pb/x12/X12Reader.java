@@ -0,0 +1,443 @@
+/*
+   Copyright [2011] [Prasad Balan]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.pb.x12;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.NoSuchElementException;
+
+/**
+ * The class reads a X12 transaction one event at a time. Loops are
+ * identified with a <code>Cf</code> hierarchy, the same way
+ * <code>X12Parser</code> does. Each call to {@link #next()} returns one of
+ * {@link #LOOP_START}, {@link #SEGMENT} or {@link #LOOP_END}.
+ *
+ * The elements of the current segment can be read and compared without
+ * creating a <code>Segment</code> or <code>String</code> objects. A complete
+ * loop can be read into a <code>Loop</code> with {@link #readLoop()}, to
+ * process a transaction one loop at a time.
+ *
+ * <pre>
+ * X12Reader reader = new X12Reader(cf837, path);
+ * while (reader.hasNext()) {
+ *     if (reader.next() == X12Reader.LOOP_START
+ *             &amp;&amp; reader.getCf().getName().equals(&quot;2300&quot;)) {
+ *         Loop claim = reader.readLoop();
+ *         ...
+ *     }
+ * }
+ * reader.close();
+ * </pre>
+ *
+ * Errors reading a file or a stream are reported as
+ * <code>java.io.UncheckedIOException</code> by {@link #hasNext()} and
+ * {@link #next()}.
+ *
+ * @author Prasad Balan
+ */
+public class X12Reader implements Closeable {
+
+	/**
+	 * A segment starts a new loop. Reported before the segment.
+	 */
+	public static final int LOOP_START = 1;
+
+	/**
+	 * A segment has been read.
+	 */
+	public static final int SEGMENT = 2;
+
+	/**
+	 * A loop has ended.
+	 */
+	public static final int LOOP_END = 3;
+
+	private final CompiledCf.Node root;
+	private final Tokenizer tokenizer;
+	private final Context context;
+	private final Closeable source;
+
+	private CompiledCf.Node current;
+	private CompiledCf.Node endTarget;
+	private CompiledCf.Node startNode;
+	private boolean segmentPending;
+	private boolean eof;
+
+	private int event;
+	private CompiledCf.Node eventNode;
+
+	/**
+	 * The constructor takes the Cf hierarchy and a X12 string.
+	 *
+	 * @param cf
+	 *            the root of the Cf hierarchy
+	 * @param source
+	 *            String
+	 * @throws FormatException
+	 */
+	public X12Reader(Cf cf, String source) throws FormatException {
+		this(cf.compile(), new CharTokenizer(source.toCharArray(), 0, source.length()), null);
+	}
+
+	/**
+	 * The constructor takes the Cf hierarchy and a <code>ByteBuffer</code>.
+	 * The bytes are read as ISO-8859-1 characters, see
+	 * {@link X12Parser#parse(ByteBuffer)}.
+	 *
+	 * @param cf
+	 *            the root of the Cf hierarchy
+	 * @param source
+	 *            ByteBuffer
+	 * @throws FormatException
+	 */
+	public X12Reader(Cf cf, ByteBuffer source) throws FormatException {
+		this(cf.compile(), new ByteTokenizer(source), null);
+	}
+
+	/**
+	 * The constructor takes the Cf hierarchy and a <code>InputStream</code>.
+	 * The stream is decoded with the platform charset and read as the events
+	 * are read, it is not closed by the reader.
+	 *
+	 * @param cf
+	 *            the root of the Cf hierarchy
+	 * @param source
+	 *            InputStream
+	 * @throws FormatException
+	 * @throws IOException
+	 */
+	public X12Reader(Cf cf, InputStream source) throws FormatException, IOException {
+		this(cf.compile(), new CharTokenizer(new InputStreamReader(source), CharTokenizer.BUFFER_SIZE), null);
+	}
+
+	/**
+	 * The constructor takes the Cf hierarchy and a X12 file. The file is
+	 * memory mapped, see {@link X12Parser#parse(Path)}. The reader needs to be
+	 * closed.
+	 *
+	 * @param cf
+	 *            the root of the Cf hierarchy
+	 * @param path
+	 *            a X12 file
+	 * @throws FormatException
+	 * @throws IOException
+	 */
+	public X12Reader(Cf cf, Path path) throws FormatException, IOException {
+		this(cf, FileChannel.open(path, StandardOpenOption.READ));
+	}
+
+	private X12Reader(Cf cf, FileChannel channel) throws FormatException, IOException {
+		this(cf.compile(), mappedTokenizer(channel), channel);
+	}
+
+	private static Tokenizer mappedTokenizer(FileChannel channel) throws IOException {
+		try {
+			return new MappedTokenizer(channel, MappedTokenizer.WINDOW_SIZE);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * The constructor takes the compiled Cf hierarchy and a tokenizer
+	 * positioned at the ISA segment.
+	 *
+	 * @param cf
+	 *            the compiled Cf hierarchy
+	 * @param tokenizer
+	 *            Tokenizer
+	 * @param source
+	 *            closed with the reader, can be null
+	 * @throws FormatException
+	 */
+	X12Reader(CompiledCf cf, Tokenizer tokenizer, Closeable source) throws FormatException {
+		this.root = cf.root();
+		this.tokenizer = tokenizer;
+		this.source = source;
+		try {
+			this.context = tokenizer.readContext();
+		} catch (FormatException e) {
+			closeQuietly();
+			throw e;
+		}
+		tokenizer.setContext(context);
+		this.current = root;
+	}
+
+	/**
+	 * The constructor takes a tokenizer positioned inside a transaction and
+	 * the compiled node of the loop the reader starts in. The loops open at
+	 * the end of the tokenizer are not closed.
+	 *
+	 * @param start
+	 *            node of the current loop
+	 * @param context
+	 *            the delimiters, already set on the tokenizer
+	 * @param tokenizer
+	 *            Tokenizer
+	 */
+	X12Reader(CompiledCf.Node start, Context context, Tokenizer tokenizer) {
+		this.root = null;
+		this.tokenizer = tokenizer;
+		this.context = context;
+		this.source = null;
+		this.current = start;
+	}
+
+	private void closeQuietly() {
+		try {
+			close();
+		} catch (IOException e) {
+			// the format error is reported
+		}
+	}
+
+	/**
+	 * Returns the context read from the ISA segment.
+	 *
+	 * @return Context
+	 */
+	public Context getContext() {
+		return context;
+	}
+
+	/**
+	 * Checks if there are more events.
+	 *
+	 * @return boolean
+	 */
+	public boolean hasNext() {
+		return fetch();
+	}
+
+	/**
+	 * Moves to the next event.
+	 *
+	 * @return {@link #LOOP_START}, {@link #SEGMENT} or {@link #LOOP_END}
+	 * @throws NoSuchElementException
+	 *             if there are no more events
+	 */
+	public int next() {
+		if (!fetch()) {
+			throw new NoSuchElementException();
+		}
+		if (endTarget != null) {
+			eventNode = current;
+			current = current.parent;
+			if (current == endTarget) {
+				endTarget = null;
+			}
+			event = LOOP_END;
+		} else if (startNode != null) {
+			eventNode = startNode;
+			current = startNode;
+			startNode = null;
+			event = LOOP_START;
+		} else {
+			eventNode = current;
+			segmentPending = false;
+			event = SEGMENT;
+		}
+		return event;
+	}
+
+	/**
+	 * Reads the next segment and works out the events it causes, if there are
+	 * no events left from the previous segment.
+	 */
+	private boolean fetch() {
+		if (endTarget != null || startNode != null || segmentPending) {
+			return true;
+		}
+		if (eof) {
+			return false;
+		}
+		if (tokenizer.next()) {
+			CompiledCf.Node node = CompiledCf.match(current, tokenizer);
+			if (node != null) {
+				if (current != node.parent) {
+					endTarget = node.parent;
+				}
+				startNode = node;
+			}
+			segmentPending = true;
+			return true;
+		}
+		eof = true;
+		if (root != null && current != root) {
+			endTarget = root;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the node of the loop the reader is in.
+	 *
+	 * @return CompiledCf.Node
+	 */
+	CompiledCf.Node currentNode() {
+		return current;
+	}
+
+	/**
+	 * Returns the current event.
+	 *
+	 * @return {@link #LOOP_START}, {@link #SEGMENT} or {@link #LOOP_END}
+	 */
+	public int getEvent() {
+		return event;
+	}
+
+	/**
+	 * Returns the Cf of the loop that starts or ends, or for a segment the Cf
+	 * of the loop the segment belongs to.
+	 *
+	 * @return Cf
+	 */
+	public Cf getCf() {
+		return eventNode.cf;
+	}
+
+	private void checkSegment() {
+		if (event != SEGMENT) {
+			throw new IllegalStateException("Current event is not a segment");
+		}
+	}
+
+	/**
+	 * Returns number of elements in the current segment.
+	 *
+	 * @return size
+	 */
+	public int getElementCount() {
+		checkSegment();
+		return tokenizer.size();
+	}
+
+	/**
+	 * Returns the length of the element at the specified position in the
+	 * current segment.
+	 *
+	 * @param index
+	 *            position
+	 * @return length
+	 */
+	public int getElementLength(int index) {
+		checkSegment();
+		return tokenizer.elementLength(index);
+	}
+
+	/**
+	 * Returns a character of the element at the specified position in the
+	 * current segment.
+	 *
+	 * @param index
+	 *            position of the element
+	 * @param pos
+	 *            position of the character in the element
+	 * @return char
+	 */
+	public char getElementChar(int index, int pos) {
+		checkSegment();
+		return tokenizer.elementCharAt(index, pos);
+	}
+
+	/**
+	 * Checks if the element at the specified position in the current segment
+	 * is equal to the <code>String</code>. No object is created.
+	 *
+	 * @param index
+	 *            position
+	 * @param s
+	 *            String to compare with
+	 * @return false if the segment has no element at the position
+	 */
+	public boolean elementEquals(int index, String s) {
+		checkSegment();
+		return tokenizer.elementEquals(index, s);
+	}
+
+	/**
+	 * Returns the element at the specified position in the current segment.
+	 *
+	 * @param index
+	 *            position
+	 * @return String
+	 */
+	public String getElement(int index) {
+		checkSegment();
+		return tokenizer.getElement(index);
+	}
+
+	/**
+	 * Returns the current segment as a <code>Segment</code> object.
+	 *
+	 * @return Segment
+	 */
+	public Segment getSegment() {
+		checkSegment();
+		return tokenizer.newSegment(context);
+	}
+
+	/**
+	 * Reads the loop that starts at the current event, with its segments and
+	 * child loops, into a <code>Loop</code>. The reader is left on the
+	 * {@link #LOOP_END} event of the loop.
+	 *
+	 * @return Loop, without a parent
+	 */
+	public Loop readLoop() {
+		if (event != LOOP_START) {
+			throw new IllegalStateException("Current event is not a loop start");
+		}
+		Loop loop = new Loop(context, eventNode.cf.getName());
+		while (true) {
+			switch (next()) {
+			case LOOP_START:
+				loop = loop.addChild(eventNode.cf.getName());
+				break;
+			case SEGMENT:
+				loop.addSegment(getSegment());
+				break;
+			case LOOP_END:
+				if (loop.getParent() == null) {
+					return loop;
+				}
+				loop = loop.getParent();
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Closes the file the reader was created with.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (source != null) {
+			source.close();
+		}
+	}
+}
@@ -16,9 +16,16 @@
  */
 package org.pb.x12;
 
-import java.util.ArrayList;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * The X12 class is the object representation of an ANSI X12
@@ -34,6 +41,7 @@ public class X12Simple implements EDI, Iterable<Segment> {
 	private static final long serialVersionUID = 1L;
 	private Context context;
 	private List<Segment> segments;
+	private volatile Map<String, List<Segment>> segmentIndex;
 
 	/**
 	 * The constructor takes a context object.
@@ -43,7 +51,7 @@ public class X12Simple implements EDI, Iterable<Segment> {
 	 */
 	public X12Simple(Context c) {
 		this.context = c;
-		this.segments = new ArrayList<Segment>();
+		this.segments = new SegmentList(this::invalidate);
 	}
 
 	/**
@@ -136,20 +144,26 @@ public class X12Simple implements EDI, Iterable<Segment> {
 	}
 
 	/**
-	 * Get the segments in the X12 transaction.
+	 * Get the segments in the X12 transaction. The segments are looked up in
+	 * an index by segment id, built on the first call and dropped when a
+	 * segment is added, removed or replaced.
 	 * 
 	 * @param name
 	 *            name of a segment
 	 * @return List<Segment>
 	 */
 	public List<Segment> findSegment(String name) {
-		List<Segment> foundSegments = new ArrayList<Segment>();
-		for (Segment s : this.segments) {
-			if (name.equals(s.getElement(0))) {
-				foundSegments.add(s);
-			}
+		Map<String, List<Segment>> index = segmentIndex;
+		if (index == null) {
+			index = new HashMap<String, List<Segment>>();
+			SegmentList.index(index, segments);
+			segmentIndex = index;
 		}
-		return foundSegments;
+		return SegmentList.find(index, name);
+	}
+
+	private void invalidate() {
+		segmentIndex = null;
 	}
 	
 	/**
@@ -281,12 +295,51 @@ public class X12Simple implements EDI, Iterable<Segment> {
 	 * @return
 	 */
 	public String toString(boolean bRemoveTrailingEmptyElements) {
-		StringBuilder dump = new StringBuilder();
+		return Dump.toString(out -> writeTo(out, bRemoveTrailingEmptyElements));
+	}
+
+	/**
+	 * Writes the X12 transaction, the same as {@link #toString()}. The
+	 * segments and elements are written one at a time, the X12 transaction is
+	 * not built in memory.
+	 * 
+	 * @param out
+	 *            Appendable
+	 * @throws IOException
+	 */
+	public void writeTo(Appendable out) throws IOException {
+		writeTo(out, false);
+	}
+
+	/**
+	 * Writes the X12 transaction, the same as {@link #toString(boolean)}.
+	 * 
+	 * @param out
+	 *            Appendable
+	 * @param bRemoveTrailingEmptyElements
+	 * @throws IOException
+	 */
+	public void writeTo(Appendable out, boolean bRemoveTrailingEmptyElements) throws IOException {
+		char separator = context.getSegmentSeparator();
 		for (Segment s : this.segments) {
-			dump.append(s.toString(bRemoveTrailingEmptyElements));
-			dump.append(context.getSegmentSeparator());
+			s.writeTo(out, bRemoveTrailingEmptyElements);
+			out.append(separator);
 		}
-		return dump.toString();
+	}
+
+	/**
+	 * Writes the X12 transaction to the stream. The characters are written as
+	 * ISO-8859-1, the charset <code>X12SimpleParser.parse(ByteBuffer)</code>
+	 * reads, through a buffer. The stream is flushed but not closed.
+	 * 
+	 * @param out
+	 *            OutputStream
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.ISO_8859_1));
+		writeTo(writer, false);
+		writer.flush();
 	}
 	
 	/**
@@ -307,12 +360,94 @@ public class X12Simple implements EDI, Iterable<Segment> {
 	 * @return XML
 	 */
 	public String toXML(boolean bRemoveTrailingEmptyElements) {
-		StringBuilder dump = new StringBuilder();
-		dump.append("<X12>");
+		return Dump.toString(out -> writeXML(out, bRemoveTrailingEmptyElements));
+	}
+
+	/**
+	 * Writes the X12 transaction in XML format, the same as {@link #toXML()}.
+	 * The segments are written one at a time, the XML is not built in memory.
+	 * 
+	 * @param out
+	 *            Appendable
+	 * @throws IOException
+	 */
+	public void writeXML(Appendable out) throws IOException {
+		writeXML(out, false);
+	}
+
+	/**
+	 * Writes the X12 transaction in XML format, the same as
+	 * {@link #toXML(boolean)}.
+	 * 
+	 * @param out
+	 *            Appendable
+	 * @param bRemoveTrailingEmptyElements
+	 * @throws IOException
+	 */
+	public void writeXML(Appendable out, boolean bRemoveTrailingEmptyElements) throws IOException {
+		out.append("<X12>");
 		for (Segment s : this.segments) {
-			dump.append(s.toXML(bRemoveTrailingEmptyElements));
+			s.writeXML(out, bRemoveTrailingEmptyElements);
 		}
-		dump.append("</X12>");
-		return dump.toString();
-	}	
+		out.append("</X12>");
+	}
+
+	/**
+	 * Writes the X12 transaction in XML format to the stream, as UTF-8
+	 * through a buffer. The stream is flushed but not closed.
+	 * 
+	 * @param out
+	 *            OutputStream
+	 * @throws IOException
+	 */
+	public void writeXML(OutputStream out) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		writeXML(writer, false);
+		writer.flush();
+	}
+
+	/**
+	 * Writes the X12 transaction as a JSON object holding the array of the
+	 * segments: <code>{"segments":[...]}</code>, see
+	 * {@link Segment#writeJSON(Appendable)}. The segments are written one at
+	 * a time, the JSON document is not built in memory.
+	 * 
+	 * @param out
+	 *            Appendable
+	 * @throws IOException
+	 */
+	public void writeJSON(Appendable out) throws IOException {
+		out.append("{\"segments\":[");
+		for (int i = 0; i < segments.size(); i++) {
+			if (i > 0) {
+				out.append(',');
+			}
+			segments.get(i).writeJSON(out);
+		}
+		out.append("]}");
+	}
+
+	/**
+	 * Writes the X12 transaction as JSON to the stream, as UTF-8 through a
+	 * buffer, see {@link #writeJSON(Appendable)}. The stream is flushed but
+	 * not closed.
+	 * 
+	 * @param out
+	 *            OutputStream
+	 * @throws IOException
+	 */
+	public void writeJSON(OutputStream out) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		writeJSON(writer);
+		writer.flush();
+	}
+
+	/**
+	 * Returns the X12 transaction as JSON, see {@link #writeJSON(Appendable)}.
+	 * 
+	 * @return JSON String
+	 */
+	public String toJSON() {
+		return Dump.toString(this::writeJSON);
+	}
 }
@@ -16,34 +16,57 @@
  */
 package org.pb.x12;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.util.Scanner;
-import java.util.regex.Pattern;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * The class represents methods used to translate a X12 transaction represented
  * as a file or string into an X12 object.
  * 
+ * A parser holds no state, it can be shared by any number of threads.
+ * 
  * @author Prasad Balan
  */
 public class X12SimpleParser implements Parser {
 
-	static final int SIZE = 106;
-	static final int POS_SEGMENT = 105;
-	static final int POS_ELEMENT = 3;
-	static final int POS_COMPOSITE_ELEMENT = 104;
+	private final boolean intern;
+
+	public X12SimpleParser() {
+		this(false);
+	}
+
+	/**
+	 * The constructor takes whether short element values are interned. When
+	 * interned, each parse keeps a bounded table of the segment ids,
+	 * qualifiers and other short values of the segments it creates, and the
+	 * segments of the X12 object share one <code>String</code> instance of
+	 * each value. The values are interned while parsing, the table is
+	 * dropped when the parse returns.
+	 * 
+	 * @param intern
+	 *            true to intern short element values
+	 */
+	public X12SimpleParser(boolean intern) {
+		this.intern = intern;
+	}
 
 	/**
 	 * The method takes a X12 file and converts it into a X2 object. The X12
 	 * class has methods to convert it into XML format as well as methods to
 	 * modify the contents.
 	 * 
+	 * The file is memory mapped and read as ISO-8859-1 characters, see
+	 * {@link #parse(Path)}.
+	 * 
 	 * @param fileName
 	 *            a X12 file
 	 * @return the X12 object
@@ -52,30 +75,52 @@ public class X12SimpleParser implements Parser {
 	 */
 	@Override
 	public EDI parse(File fileName) throws FormatException, IOException {
-		final char[] buffer = new char[SIZE];
-		FileReader fr = new FileReader(fileName);
-		int count = fr.read(buffer);
-		fr.close();
-		if (count != SIZE) {
-			throw new FormatException();
-		}
-		Context context = new Context();
-		context.setSegmentSeparator(buffer[POS_SEGMENT]);
-		context.setElementSeparator(buffer[POS_ELEMENT]);
-		context.setCompositeElementSeparator(buffer[POS_COMPOSITE_ELEMENT]);
+		return parse(fileName.toPath());
+	}
 
-		Character segmentSeparator = context.getSegmentSeparator();
-		String quotedSegmentSeparator = Pattern.quote(segmentSeparator.toString());
+	/**
+	 * The method takes a X12 file and converts it into a X2 object. The file
+	 * is memory mapped and tokenized in place, each byte is read as one
+	 * ISO-8859-1 character. Files larger than 1 GB are mapped one window at a
+	 * time. The segments of the X12 object are backed by the mapping and only
+	 * create the elements that are read, the file should not be modified
+	 * while the X12 object is in use.
+	 * 
+	 * @param path
+	 *            a X12 file
+	 * @return the X12 object
+	 * @throws FormatException
+	 * @throws IOException
+	 */
+	public EDI parse(Path path) throws FormatException, IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			Tokenizer tokenizer = new MappedTokenizer(channel, MappedTokenizer.WINDOW_SIZE);
+			return scanSource(tokenizer);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			channel.close();
+		}
+	}
 
-		Scanner scanner = new Scanner(fileName);
-		scanner.useDelimiter(quotedSegmentSeparator + "\r\n|" + quotedSegmentSeparator + "\n|" + quotedSegmentSeparator);
+	/**
+	 * private helper method
+	 * @param tokenizer
+	 * @return
+	 * @throws FormatException
+	 */
+	private X12Simple scanSource(Tokenizer tokenizer) throws FormatException {
+		Context context = tokenizer.readContext();
+		tokenizer.setContext(context);
+		if (intern) {
+			tokenizer.setInternTable(new InternTable(InternTable.SIZE, null));
+		}
 
 		X12Simple x12 = new X12Simple(context);
-		while (scanner.hasNext()) {
-			String line = scanner.next();
-			x12.addSegment(line);
+		while (tokenizer.next()) {
+			x12.addSegment(tokenizer.newSegment(context));
 		}
-		scanner.close();
 		return x12;
 	}
 
@@ -84,6 +129,9 @@ public class X12SimpleParser implements Parser {
 	 * class has methods to convert it into XML format as well as methods to
 	 * modify the contents.
 	 * 
+	 * The stream is decoded with the platform charset and tokenized as it is
+	 * read, it is not held in memory. The stream is not closed.
+	 * 
 	 * @param source
 	 *            InputStream
 	 * @return the X12 object
@@ -92,19 +140,12 @@ public class X12SimpleParser implements Parser {
 	 */
 	@Override
 	public EDI parse(InputStream source) throws FormatException, IOException {
-		StringBuilder strBuffer = new StringBuilder();
-		char[] cbuf = new char[1024];
-		int length = -1;
-
-		Reader reader = new BufferedReader(new InputStreamReader(source));
-
-		while ((length = reader.read(cbuf)) != -1) {
-			strBuffer.append(cbuf, 0, length);
+		Reader reader = new InputStreamReader(source);
+		try {
+			return scanSource(new CharTokenizer(reader, CharTokenizer.BUFFER_SIZE));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
 		}
-
-		String strSource = strBuffer.toString();
-
-		return parse(strSource);
 	}
 
 	/**
@@ -120,29 +161,74 @@ public class X12SimpleParser implements Parser {
 	 */
 	@Override
 	public EDI parse(String source) throws FormatException {
-		if (source.length() < SIZE) {
-			throw new FormatException();
-		}
-		Context context = new Context();
-		context.setSegmentSeparator(source.charAt(POS_SEGMENT));
-		context.setElementSeparator(source.charAt(POS_ELEMENT));
-		context.setCompositeElementSeparator(source.charAt(POS_COMPOSITE_ELEMENT));
+		Tokenizer tokenizer = new CharTokenizer(source.toCharArray(), 0, source.length());
+		return scanSource(tokenizer);
+	}
 
-		Character segmentSeparator = context.getSegmentSeparator();
-		String quotedSegmentSeparator = Pattern.quote(segmentSeparator.toString());
+	/**
+	 * The method takes a <code>ByteBuffer</code> and converts it into a X12
+	 * object. The bytes between the position and the limit of the buffer are
+	 * read as ISO-8859-1 characters without decoding, the buffer can be a heap
+	 * or a direct buffer. The segments of the X12 object are backed by the
+	 * buffer and only create the elements that are read, so the buffer should
+	 * not be modified after parsing.
+	 * 
+	 * @param source
+	 *            ByteBuffer
+	 * @return the X12 object
+	 * @throws FormatException
+	 */
+	public EDI parse(ByteBuffer source) throws FormatException {
+		Tokenizer tokenizer = new ByteTokenizer(source);
+		return scanSource(tokenizer);
+	}
 
-		Scanner scanner = new Scanner(source);
-		scanner.useDelimiter(quotedSegmentSeparator + "\r\n|" + quotedSegmentSeparator + "\n|" + quotedSegmentSeparator);
+	/**
+	 * The method takes a <code>ByteBuffer</code> and converts it into a X12
+	 * object, tokenizing it on several threads. The buffer is cut into chunks
+	 * at segment separators and the chunks are broken into segments and
+	 * elements in parallel on the pool. The X12 object is the same as the one
+	 * returned by {@link #parse(ByteBuffer)}.
+	 * 
+	 * @param source
+	 *            ByteBuffer
+	 * @param pool
+	 *            ForkJoinPool the chunks are tokenized on
+	 * @return the X12 object
+	 * @throws FormatException
+	 */
+	public EDI parse(ByteBuffer source, ForkJoinPool pool) throws FormatException {
+		Tokenizer tokenizer = new ParallelTokenizer(source, pool, ParallelTokenizer.CHUNK_SIZE);
+		return scanSource(tokenizer);
+	}
 
-		X12Simple x12 = new X12Simple(context);
-		while (scanner.hasNext()) {
-			String line = scanner.next();
-			Segment s = x12.addSegment();
-			String[] tokens = line.split("\\" + context.getElementSeparator());
-			s.addElements(tokens);
+	/**
+	 * The method takes a X12 file and converts it into a X12 object,
+	 * tokenizing it on several threads, see
+	 * {@link #parse(ByteBuffer, ForkJoinPool)}. The file is memory mapped,
+	 * files larger than 1 GB are mapped and tokenized one window at a time.
+	 * Besides the mapped file, the tokenizer holds an index of 4 bytes per
+	 * element and 20 bytes per segment for a batch of 1 MB chunks, one chunk
+	 * per thread of the pool, whatever the size of the file.
+	 * 
+	 * @param path
+	 *            a X12 file
+	 * @param pool
+	 *            ForkJoinPool the chunks are tokenized on
+	 * @return the X12 object
+	 * @throws FormatException
+	 * @throws IOException
+	 */
+	public EDI parse(Path path, ForkJoinPool pool) throws FormatException, IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			Tokenizer tokenizer = new ParallelTokenizer(channel, MappedTokenizer.WINDOW_SIZE,
+					pool, ParallelTokenizer.CHUNK_SIZE);
+			return scanSource(tokenizer);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			channel.close();
 		}
-		scanner.close();
-		return x12;
 	}
-
 }
@@ -0,0 +1,89 @@
+package org.pb.x12;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class ByteTokenizerTest {
+
+	private Tokenizer tokenizer(ByteBuffer buffer) {
+		Tokenizer t = new ByteTokenizer(buffer);
+		t.setContext(new Context('~', '*', ':'));
+		return t;
+	}
+
+	private ByteBuffer heap(String source) {
+		return ByteBuffer.wrap(source.getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	private ByteBuffer direct(String source) {
+		byte[] bytes = source.getBytes(StandardCharsets.ISO_8859_1);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+		buffer.put(bytes);
+		buffer.flip();
+		return buffer;
+	}
+
+	@Test
+	public void testNextHeap() {
+		Tokenizer t = tokenizer(heap("ST*835*000000001~\r\nSE*24*000000001~"));
+		assertTrue(t.next());
+		assertEquals("ST*835*000000001", t.toString());
+		assertTrue(t.next());
+		assertEquals("SE*24*000000001", t.toString());
+		assertFalse(t.next());
+	}
+
+	@Test
+	public void testNextDirect() {
+		Tokenizer t = tokenizer(direct("ST*835*000000001~\nSE*24*000000001~"));
+		assertTrue(t.next());
+		assertEquals("835", t.getElement(1));
+		assertTrue(t.next());
+		assertEquals("SE", t.getElement(0));
+		assertFalse(t.next());
+	}
+
+	@Test
+	public void testNextPosition() {
+		ByteBuffer buffer = heap("XXST*835~SE*24~");
+		buffer.position(2);
+		Tokenizer t = tokenizer(buffer);
+		assertTrue(t.next());
+		assertEquals("ST*835", t.toString());
+		assertEquals(2, buffer.position());
+	}
+
+	@Test
+	public void testElementEquals() {
+		Tokenizer t = tokenizer(direct("N1*PR*ALWAYS INSURANCE COMPANY~"));
+		assertTrue(t.next());
+		assertTrue(t.elementEquals(0, "N1"));
+		assertTrue(t.elementEquals(1, "PR"));
+		assertFalse(t.elementEquals(1, "PE"));
+		assertFalse(t.elementEquals(5, "PR"));
+	}
+
+	@Test
+	public void testLatin1() {
+		Tokenizer t = tokenizer(heap("N1*PR*CAFÉ~"));
+		assertTrue(t.next());
+		assertEquals("CAFÉ", t.getElement(2));
+	}
+
+	@Test
+	public void testNewSegment() {
+		Tokenizer t = tokenizer(direct("CLP*PCN123456789**5555.55**CCN987654321~"));
+		assertTrue(t.next());
+		Segment s = t.newSegment(new Context('~', '*', ':'));
+		assertEquals(6, s.size());
+		assertEquals("5555.55", s.getElement(3));
+		assertEquals("CLP*PCN123456789**5555.55**CCN987654321", s.toString());
+		s.setElement(3, "1.00");
+		assertEquals("CLP*PCN123456789**1.00**CCN987654321", s.toString());
+	}
+
+}
@@ -0,0 +1,283 @@
+package org.pb.x12;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class CachingParserTest {
+
+	private static final String SOURCE = "ISA*00*          *00*          *ZZ*SENDERID       *ZZ*RECEIVERID    *030409*0701*U*00401*0000000001*0*T*:~"
+			+ "GS*1212*SENDERID*RECEIVERID*0701*000000001*X*00401~"
+			+ "ST*835*000000001~"
+			+ "LX*1~"
+			+ "CLP*PCN123456789**5555.55**CCN987654321~"
+			+ "SVC*HC:99213*100*50~"
+			+ "SE*5*000000001~"
+			+ "GE*1*000000001~"
+			+ "IEA*1*000000001~";
+
+	/**
+	 * Counts the calls to the parser it wraps.
+	 */
+	private static class CountingParser implements Parser {
+
+		private final Parser parser;
+		int count;
+		int files;
+
+		CountingParser(Parser parser) {
+			this.parser = parser;
+		}
+
+		@Override
+		public EDI parse(File source) throws FormatException, IOException {
+			count++;
+			files++;
+			return parser.parse(source);
+		}
+
+		@Override
+		public EDI parse(String source) throws FormatException {
+			count++;
+			return parser.parse(source);
+		}
+
+		@Override
+		public EDI parse(InputStream source) throws FormatException, IOException {
+			count++;
+			return parser.parse(source);
+		}
+	}
+
+	private Cf loadCf() {
+		Cf cfX12 = new Cf("X12");
+		Cf cfISA = cfX12.addChild("ISA", "ISA");
+		Cf cfGS = cfISA.addChild("GS", "GS");
+		Cf cfST = cfGS.addChild("ST", "ST", "835", 1);
+		cfST.addChild("1000A", "N1", "PR", 1);
+		cfST.addChild("1000B", "N1", "PE", 1);
+		Cf cf2000 = cfST.addChild("2000", "LX");
+		Cf cf2100 = cf2000.addChild("2100", "CLP");
+		cf2100.addChild("2110", "SVC");
+		cfGS.addChild("SE", "SE");
+		cfISA.addChild("GE", "GE");
+		cfX12.addChild("IEA", "IEA");
+		return cfX12;
+	}
+
+	@Test
+	public void testParseString() throws Exception {
+		CountingParser counting = new CountingParser(new X12Parser(loadCf()));
+		CachingParser parser = new CachingParser(counting, 1 << 20);
+		X12 first = (X12) parser.parse(SOURCE);
+		X12 second = (X12) parser.parse(new String(SOURCE));
+		assertEquals(1, counting.count);
+		assertEquals(1, parser.size());
+		assertNotSame(first, second);
+		assertEquals(SOURCE, first.toString());
+		assertEquals(SOURCE, second.toString());
+		assertEquals(first.toXML(), second.toXML());
+		assertEquals(4, second.getLoop(0).getLoop(0).getLoop(0).getLoop(0).getDepth());
+		assertSame(second, second.getLoop(0).getParent());
+		assertEquals("2110", second.findLoop("2110").get(0).getName());
+		parser.parse(SOURCE.replace("5555.55", "5555.56"));
+		assertEquals(2, counting.count);
+		assertEquals(2, parser.size());
+	}
+
+	@Test
+	public void testChangesNotKept() throws Exception {
+		CachingParser parser = new CachingParser(new X12Parser(loadCf()), 1 << 20);
+		X12 first = (X12) parser.parse(SOURCE);
+		first.findSegment("CLP").get(0).setElement(1, "CHANGED");
+		first.findLoop("2100").get(0).removeSegment(0);
+		first.getLoop(0).addChild("NEW");
+		first.findSegment("SVC").get(0).getElements().add("X");
+		X12 second = (X12) parser.parse(SOURCE);
+		assertEquals(SOURCE, second.toString());
+		second.findSegment("SVC").get(0).setElement(2, "200");
+		assertEquals(SOURCE, parser.parse(SOURCE).toString());
+		assertEquals("SVC*HC:99213*100*50*X", first.findSegment("SVC").get(0).toString());
+	}
+
+	@Test
+	public void testContextNotKept() throws Exception {
+		CachingParser parser = new CachingParser(new X12Parser(loadCf()), 1 << 20);
+		X12 first = (X12) parser.parse(SOURCE);
+		first.getContext().setSegmentSeparator('!');
+		first.getContext().setElementSeparator('|');
+		assertEquals(SOURCE.replace('~', '!').replace('*', '|'), first.toString());
+		X12 second = (X12) parser.parse(SOURCE);
+		assertNotSame(first.getContext(), second.getContext());
+		assertSame(second.getContext(), second.findLoop("2110").get(0).getContext());
+		assertSame(second.getContext(), second.findSegment("SVC").get(0).getContext());
+		assertEquals(SOURCE, second.toString());
+
+		CachingParser simple = new CachingParser(new X12SimpleParser(), 1 << 20);
+		X12Simple x12 = (X12Simple) simple.parse(SOURCE);
+		x12.getContext().setSegmentSeparator('!');
+		assertEquals(SOURCE.replace('~', '!'), x12.toString());
+		assertEquals(SOURCE, simple.parse(SOURCE).toString());
+	}
+
+	@Test
+	public void testSizeCountsElementsRead() throws Exception {
+		CachingParser parser = new CachingParser(new X12Parser(loadCf()), 1 << 20);
+		parser.parse(SOURCE);
+		long size = parser.getSize();
+		// reading the elements of a copy creates the strings kept in the cache
+		X12 x12 = (X12) parser.parse(SOURCE);
+		long retained = 2L * SOURCE.length();
+		for (String name : new String[] { "ISA", "GS", "ST", "LX", "CLP", "SVC", "SE", "GE", "IEA" }) {
+			for (Segment s : x12.findSegment(name)) {
+				List<String> elements = new ArrayList<String>();
+				for (String e : s) {
+					elements.add(e);
+				}
+				retained += new Segment(s.getContext(), elements).estimateSize();
+			}
+		}
+		assertTrue(retained <= size);
+		assertEquals(size, parser.getSize());
+	}
+
+	@Test
+	public void testConcurrentCopies() throws Exception {
+		final CachingParser parser = new CachingParser(new X12Parser(loadCf()), 1 << 20);
+		parser.parse(SOURCE);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for (int i = 0; i < 100; i++) {
+				results.add(executor.submit(new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						X12 x12 = (X12) parser.parse(SOURCE);
+						x12.findSegment("CLP").get(0).setElement(1, "CHANGED");
+						return parser.parse(SOURCE).toString();
+					}
+				}));
+			}
+			for (Future<String> result : results) {
+				assertEquals(SOURCE, result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testParseInputStream() throws Exception {
+		CountingParser counting = new CountingParser(new X12SimpleParser());
+		CachingParser parser = new CachingParser(counting, 1 << 20);
+		X12Simple first = (X12Simple) parser.parse(new ByteArrayInputStream(SOURCE.getBytes()));
+		first.getSegment(3).setElement(1, "2");
+		X12Simple second = (X12Simple) parser.parse(new ByteArrayInputStream(SOURCE.getBytes()));
+		assertEquals(1, counting.count);
+		assertEquals(SOURCE, second.toString());
+		assertEquals("LX*2", first.getSegment(3).toString());
+	}
+
+	@Test
+	public void testParseInputStreamSize() throws Exception {
+		CachingParser parser = new CachingParser(new X12SimpleParser(), 1 << 20);
+		byte[] bytes = SOURCE.getBytes();
+		assertEquals(SOURCE, parser.parse(new ByteArrayInputStream(bytes), bytes.length).toString());
+		try {
+			parser.parse(new ByteArrayInputStream(bytes), bytes.length - 1);
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testParseFile() throws Exception {
+		CountingParser counting = new CountingParser(new X12Parser(loadCf()));
+		CachingParser parser = new CachingParser(counting, 1 << 20);
+		URL url = this.getClass().getResource("/example835One.txt");
+		File file = new File(url.getFile());
+		X12 first = (X12) parser.parse(file);
+		X12 second = (X12) parser.parse(file);
+		assertEquals(1, counting.count);
+		assertEquals(1, counting.files);
+		assertEquals(first.toString(), second.toString());
+		assertEquals(2, second.findLoop("2100").size());
+	}
+
+	@Test
+	public void testParseFileCharset() throws Exception {
+		CountingParser counting = new CountingParser(new X12SimpleParser());
+		CachingParser parser = new CachingParser(counting, 1 << 20);
+		String source = SOURCE.replace("PCN123456789", "PCN\u00c9\u00fc");
+		File file = File.createTempFile("x12-caching", ".txt");
+		try {
+			Files.write(file.toPath(), source.getBytes(StandardCharsets.ISO_8859_1));
+			X12Simple expected = (X12Simple) new X12SimpleParser().parse(file);
+			X12Simple first = (X12Simple) parser.parse(file);
+			X12Simple second = (X12Simple) parser.parse(file);
+			assertEquals(1, counting.count);
+			assertEquals(expected.toString(), first.toString());
+			assertEquals(source, second.toString());
+			assertEquals("PCN\u00c9\u00fc", second.getSegment(4).getElement(1));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		CountingParser counting = new CountingParser(new X12Parser(loadCf()));
+		CachingParser sizing = new CachingParser(counting, Long.MAX_VALUE);
+		sizing.parse(SOURCE);
+		long size = sizing.getSize();
+		assertTrue(size > 2 * SOURCE.length());
+
+		String[] sources = new String[3];
+		for (int i = 0; i < sources.length; i++) {
+			sources[i] = SOURCE.replace("PCN123456789", "PCN00000000" + i);
+		}
+		CachingParser parser = new CachingParser(counting, 2 * size);
+		counting.count = 0;
+		parser.parse(sources[0]);
+		parser.parse(sources[1]);
+		parser.parse(sources[0]);
+		assertEquals(2, counting.count);
+		// the least recently used is dropped
+		parser.parse(sources[2]);
+		assertEquals(2, parser.size());
+		assertTrue(parser.getSize() <= 2 * size);
+		parser.parse(sources[0]);
+		assertEquals(3, counting.count);
+		parser.parse(sources[1]);
+		assertEquals(4, counting.count);
+
+		parser.clear();
+		assertEquals(0, parser.size());
+		assertEquals(0, parser.getSize());
+
+		CachingParser small = new CachingParser(counting, size - 1);
+		small.parse(SOURCE);
+		assertEquals(SOURCE, small.parse(SOURCE).toString());
+		assertEquals(0, small.size());
+		assertEquals(6, counting.count);
+	}
+}
@@ -0,0 +1,161 @@
+package org.pb.x12;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CharTokenizerTest {
+
+	private Tokenizer tokenizer(String source) {
+		Tokenizer t = new CharTokenizer(source.toCharArray(), 0, source.length());
+		t.setContext(new Context('~', '*', ':'));
+		return t;
+	}
+
+	@Test
+	public void testNext() {
+		Tokenizer t = tokenizer("ST*835*000000001~SE*24*000000001~");
+		assertTrue(t.next());
+		assertEquals("ST*835*000000001", t.toString());
+		assertTrue(t.next());
+		assertEquals("SE*24*000000001", t.toString());
+		assertFalse(t.next());
+	}
+
+	@Test
+	public void testNextLineBreaks() {
+		Tokenizer t = tokenizer("ST*835~\r\nBPR*DATA~\nTRN*1~\n");
+		assertTrue(t.next());
+		assertEquals("ST*835", t.toString());
+		assertTrue(t.next());
+		assertEquals("BPR*DATA", t.toString());
+		assertTrue(t.next());
+		assertEquals("TRN*1", t.toString());
+		assertFalse(t.next());
+	}
+
+	@Test
+	public void testNextEmptySegment() {
+		Tokenizer t = tokenizer("ST*835~~SE*24");
+		assertTrue(t.next());
+		assertTrue(t.next());
+		assertEquals(1, t.size());
+		assertEquals("", t.getElement(0));
+		assertTrue(t.next());
+		assertEquals("SE*24", t.toString());
+		assertFalse(t.next());
+	}
+
+	@Test
+	public void testElementHash() {
+		Tokenizer t = tokenizer("NM1*QC**PATIENT~");
+		assertTrue(t.next());
+		assertEquals("NM1".hashCode(), t.elementHash(0));
+		assertEquals("QC".hashCode(), t.elementHash(1));
+		assertEquals("".hashCode(), t.elementHash(2));
+		assertEquals("PATIENT".hashCode(), t.elementHash(3));
+	}
+
+	@Test
+	public void testGetElements() {
+		Tokenizer t = tokenizer("NM1*QC*1*PATIENT*TREATED*ONE***34*333333333~");
+		assertTrue(t.next());
+		assertArrayEquals("NM1*QC*1*PATIENT*TREATED*ONE***34*333333333".split("\\*"), t.getElements());
+	}
+
+	@Test
+	public void testGetElementsTrailingEmpty() {
+		Tokenizer t = tokenizer("CLP*PCN123456789**5555.55***~");
+		assertTrue(t.next());
+		assertEquals(4, t.size());
+		assertEquals("5555.55", t.getElement(3));
+	}
+
+	@Test
+	public void testGetElementsAllEmpty() {
+		Tokenizer t = tokenizer("**~");
+		assertTrue(t.next());
+		assertEquals(0, t.size());
+	}
+
+	private List<String> segments(Tokenizer t) {
+		t.setContext(new Context('~', '*', ':'));
+		List<String> segments = new ArrayList<String>();
+		while (t.next()) {
+			segments.add(t.toString() + t.size());
+		}
+		return segments;
+	}
+
+	@Test
+	public void testReader() throws IOException {
+		StringBuilder source = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			source.append("CLP*PCN").append(i).append("**").append(i * 7).append(".00");
+			source.append(i % 3 == 0 ? "~\r\n" : i % 3 == 1 ? "~\n" : "~");
+		}
+		final String s = source.toString();
+		List<String> expected = segments(new CharTokenizer(s.toCharArray(), 0, s.length()));
+		for (int bufferSize : new int[] { 1, 7, 16, 33, 8192 }) {
+			assertEquals(expected, segments(new CharTokenizer(new StringReader(s), bufferSize)));
+		}
+		Reader oneCharAtATime = new StringReader(s) {
+			@Override
+			public int read(char[] cbuf, int off, int len) throws IOException {
+				return super.read(cbuf, off, Math.min(len, 1));
+			}
+		};
+		assertEquals(expected, segments(new CharTokenizer(oneCharAtATime, 16)));
+	}
+
+	@Test
+	public void testReaderContext() throws Exception {
+		Tokenizer t = new CharTokenizer(new StringReader(X12ParserTest.EXPECTED_X12_TOSTRING), 4);
+		assertEquals("[~,*,:]", t.readContext().toString());
+	}
+
+	@Test(expected = FormatException.class)
+	public void testReaderContextShort() throws Exception {
+		new CharTokenizer(new StringReader("ISA*00~"), 4).readContext();
+	}
+
+	@Test
+	public void testNewSegment() {
+		Tokenizer t = tokenizer("CLP*PCN123456789**5555.55**CCN987654321~N1*PE***~");
+		Context context = new Context('~', '*', ':');
+		assertTrue(t.next());
+		Segment s = t.newSegment(context);
+		assertTrue(t.next());
+		Segment n1 = t.newSegment(context);
+		assertEquals(6, s.size());
+		assertEquals("5555.55", s.getElement(3));
+		assertEquals("CLP*PCN123456789**5555.55**CCN987654321", s.toString());
+		s.setElement(3, "1.00");
+		assertEquals("CLP*PCN123456789**1.00**CCN987654321", s.toString());
+		assertEquals(2, n1.size());
+		assertEquals("PE", n1.getElement(1));
+	}
+
+	@Test
+	public void testNewSegmentReader() throws IOException {
+		String source = "CLP*PCN123456789**5555.55**CCN987654321~**~N1*PE*FI*888888888~";
+		Tokenizer t = new CharTokenizer(new StringReader(source), 7);
+		Context context = new Context('~', '*', ':');
+		t.setContext(context);
+		List<Segment> segments = new ArrayList<Segment>();
+		while (t.next()) {
+			segments.add(t.newSegment(context));
+		}
+		assertEquals(3, segments.size());
+		assertEquals("CLP*PCN123456789**5555.55**CCN987654321", segments.get(0).toString());
+		assertEquals("CCN987654321", segments.get(0).getElement(5));
+		assertEquals(0, segments.get(1).size());
+		assertEquals("N1*PE*FI*888888888", segments.get(2).toString());
+	}
+}
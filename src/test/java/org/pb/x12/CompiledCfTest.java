@@ -0,0 +1,148 @@
+package org.pb.x12;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class CompiledCfTest {
+
+	private Cf loadCf() {
+		Cf cfX12 = new Cf("X12");
+		Cf cfISA = cfX12.addChild("ISA", "ISA");
+		Cf cfGS = cfISA.addChild("GS", "GS");
+		Cf cfST = cfGS.addChild("ST", "ST", "835", 1);
+		cfST.addChild("1000A", "N1", "PR", 1);
+		cfST.addChild("1000B", "N1", "PE", 1);
+		Cf cf2000 = cfST.addChild("2000", "LX");
+		Cf cf2100 = cf2000.addChild("2100", "CLP");
+		cf2100.addChild("2110", "SVC");
+		cf2100.addChild("2110X", "N1", "A,B,C,D,E,F,PE", 1);
+		cfISA.addChild("GE", "GE");
+		cfX12.addChild("IEA", "IEA");
+		return cfX12;
+	}
+
+	private String match(CompiledCf compiled, String path, String segment) {
+		CompiledCf.Node current = compiled.root();
+		Tokenizer t = new CharTokenizer(path.toCharArray(), 0, path.length());
+		t.setContext(new Context('~', '*', ':'));
+		while (t.next()) {
+			current = CompiledCf.match(current, t);
+		}
+		t = new CharTokenizer(segment.toCharArray(), 0, segment.length());
+		t.setContext(new Context('~', '*', ':'));
+		assertTrue(t.next());
+		CompiledCf.Node node = CompiledCf.match(current, t);
+		return node == null ? null : node.cf.getName();
+	}
+
+	@Test
+	public void testCompile() {
+		Cf cf = loadCf();
+		CompiledCf compiled = cf.compile();
+		assertSame(cf, compiled.getCf());
+		assertSame(cf, compiled.root().cf);
+		assertNull(compiled.root().parent);
+	}
+
+	@Test
+	public void testMatchChild() {
+		CompiledCf compiled = loadCf().compile();
+		assertEquals("ISA", match(compiled, "", "ISA*00"));
+		assertEquals("GS", match(compiled, "ISA*00~", "GS*HP"));
+		assertEquals("ST", match(compiled, "ISA*00~GS*HP~", "ST*835*0001"));
+	}
+
+	@Test
+	public void testMatchQualifier() {
+		CompiledCf compiled = loadCf().compile();
+		String path = "ISA*00~GS*HP~ST*835~";
+		assertEquals("1000A", match(compiled, path, "N1*PR*PAYER"));
+		assertEquals("1000B", match(compiled, path, "N1*PE*PAYEE"));
+		assertNull(match(compiled, path, "N1*XX*OTHER"));
+		assertNull(match(compiled, path, "N1"));
+		assertNull(match(compiled, "ISA*00~GS*HP~", "ST*837*0001"));
+	}
+
+	@Test
+	public void testMatchAncestor() {
+		CompiledCf compiled = loadCf().compile();
+		String path = "ISA*00~GS*HP~ST*835~LX*1~CLP*1~SVC*1~";
+		assertEquals("2100", match(compiled, path, "CLP*2"));
+		assertEquals("2000", match(compiled, path, "LX*2"));
+		assertEquals("GE", match(compiled, path, "GE*1"));
+		assertEquals("IEA", match(compiled, path, "IEA*1"));
+		assertEquals("1000A", match(compiled, path, "N1*PR"));
+		assertNull(match(compiled, path, "DTM*050"));
+	}
+
+	@Test
+	public void testMatchChildBeforeAncestor() {
+		CompiledCf compiled = loadCf().compile();
+		String path = "ISA*00~GS*HP~ST*835~LX*1~CLP*1~";
+		assertEquals("2110X", match(compiled, path, "N1*PE"));
+		assertEquals("2110X", match(compiled, path, "N1*E"));
+		assertEquals("1000A", match(compiled, path, "N1*PR"));
+		assertEquals("1000B", match(compiled, "ISA*00~GS*HP~ST*835~LX*1~", "N1*PE"));
+	}
+
+	@Test
+	public void testMatchSharedChild() throws FormatException {
+		Cf cfX12 = new Cf("X12");
+		Cf cfST = cfX12.addChild("ST", "ST");
+		Cf cf2000B = cfST.addChild("2000B", "HL", "22", 3);
+		Cf cf2000C = cfST.addChild("2000C", "HL", "23", 3);
+		Cf cf2300 = new Cf("2300", "CLM");
+		cf2000B.addChild(cf2300);
+		cf2000C.addChild(cf2300);
+		CompiledCf compiled = cfX12.compile();
+		CompiledCf.Node current = compiled.root();
+		Tokenizer t = new CharTokenizer("ST*837~HL*1**22~CLM*1~".toCharArray(), 0, 22);
+		t.setContext(new Context('~', '*', ':'));
+		while (t.next()) {
+			current = CompiledCf.match(current, t);
+		}
+		assertSame(cf2300, current.cf);
+		assertEquals("2000B", current.parent.cf.getName());
+		assertEquals("2300", match(compiled, "ST*837~HL*1**23~", "CLM*1"));
+
+		String source = "ISA*00*          *00*          *ZZ*SENDERID       *ZZ*RECEIVERID    *030409*0701*U*00401*0000000001*0*T*:~"
+				+ "ST*837~HL*1**22~CLM*1~HL*2**23~CLM*2~HL*3**22~CLM*3~";
+		X12 x12 = (X12) new X12Parser(cfX12).parse(source);
+		List<Loop> claims = x12.findLoop("2300");
+		assertEquals(3, claims.size());
+		assertEquals("2000B", claims.get(0).getParent().getName());
+		assertEquals("2000C", claims.get(1).getParent().getName());
+		assertEquals("2000B", claims.get(2).getParent().getName());
+	}
+
+	@Test
+	public void testCompileIsSnapshot() {
+		Cf cf = loadCf();
+		CompiledCf compiled = cf.compile();
+		cf.addChild("TA1", "TA1");
+		assertNull(match(compiled, "", "TA1*1"));
+		assertEquals("TA1", match(cf.compile(), "", "TA1*1"));
+	}
+
+	@Test
+	public void testCompileDeep() {
+		Cf cf = new Cf("X12");
+		Cf last = cf;
+		for (int i = 0; i < 2000; i++) {
+			last = last.addChild("L" + i, "S" + i);
+		}
+		CompiledCf compiled = cf.compile();
+		CompiledCf.Node node = compiled.root();
+		while (!node.children().isEmpty()) {
+			node = node.children().get(0);
+		}
+		assertSame(last, node.cf);
+		assertEquals(2000, node.depth);
+		assertEquals(2000, compiled.strings().length);
+		assertEquals("S0", compiled.strings()[0]);
+		assertEquals("L0", match(compiled, "S0~S1~S2~", "S0"));
+	}
+}
@@ -0,0 +1,90 @@
+package org.pb.x12;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class InternTableTest {
+
+	private Tokenizer elements(String s) {
+		return new CharTokenizer(s.toCharArray(), 0, s.length());
+	}
+
+	@Test
+	public void testIntern() {
+		InternTable table = new InternTable(64, null);
+		String a = table.intern(elements("CLP"), 0, 3);
+		assertEquals("CLP", a);
+		assertSame(a, table.intern(elements("CLP"), 0, 3));
+		assertSame(a, table.intern(elements("XCLPX"), 1, 4));
+		assertEquals("", table.intern(elements("X"), 0, 0));
+	}
+
+	@Test
+	public void testInternPinned() {
+		String clp = new String("CLP");
+		InternTable table = new InternTable(16, new String[] { clp, "PR" });
+		assertSame(clp, table.intern(elements("CLP"), 0, 3));
+		for (int i = 0; i < 1000; i++) {
+			table.intern(elements(Integer.toString(i)), 0, Integer.toString(i).length());
+		}
+		assertSame(clp, table.intern(elements("CLP"), 0, 3));
+	}
+
+	@Test
+	public void testInternPinnedCollisions() {
+		// more values than the probes of a slot
+		String[] values = new String[100];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = new String("N" + i);
+		}
+		InternTable table = new InternTable(16, values);
+		for (int i = 0; i < 1000; i++) {
+			table.intern(elements("X" + i), 0, Integer.toString(i).length() + 1);
+		}
+		for (String value : values) {
+			assertSame(value, table.intern(elements(value), 0, value.length()));
+		}
+
+		// "Aa" and "BB" have the same hash code, so do these at any table size
+		String[] same = { "AaAaAa", "AaAaBB", "AaBBAa", "AaBBBB", "BBAaAa" };
+		try {
+			new InternTable(16, same);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// cannot be pinned
+		}
+		table = new InternTable(16, new String[] { same[0], same[1], same[2], same[3] });
+		assertSame(same[3], table.intern(elements("AaBBBB"), 0, 6));
+	}
+
+	@Test
+	public void testInternLong() {
+		InternTable table = new InternTable(64, null);
+		String a = table.intern(elements("20090915"), 0, 8);
+		assertEquals("20090915", a);
+		assertNotSame(a, table.intern(elements("20090915"), 0, 8));
+	}
+
+	@Test
+	public void testInternWhileParsing() {
+		InternTable table = new InternTable(64, null);
+		Tokenizer t = elements("CAS*PR*20090915~CAS*PR~");
+		t.setContext(new Context('~', '*', ':'));
+		t.setInternTable(table);
+		assertTrue(t.next());
+		String[] first = t.internElements();
+		assertTrue(t.next());
+		String[] second = t.internElements();
+		// the short values are created with the segment, before they are read
+		assertEquals("PR", first[1]);
+		assertNull(first[2]);
+		assertSame(first[0], second[0]);
+		assertSame(first[1], second[1]);
+		Segment s = t.newSegment(new Context('~', '*', ':'));
+		assertSame(first[1], s.getElement(1));
+
+		t.setInternTable(null);
+		assertNull(t.internElements());
+	}
+}
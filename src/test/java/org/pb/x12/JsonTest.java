@@ -0,0 +1,28 @@
+package org.pb.x12;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class JsonTest {
+
+	private String string(String s) throws Exception {
+		StringBuilder out = new StringBuilder();
+		Json.string(out, s);
+		return out.toString();
+	}
+
+	@Test
+	public void testString() throws Exception {
+		assertEquals("\"CLP\"", string("CLP"));
+		assertEquals("\"\"", string(""));
+		assertEquals("null", string(null));
+		assertEquals("\"M\u00dcLLER\"", string("M\u00dcLLER"));
+	}
+
+	@Test
+	public void testStringEscaped() throws Exception {
+		assertEquals("\"a\\\"b\\\\c\"", string("a\"b\\c"));
+		assertEquals("\"\\r\\n\\t\\u0000\\u001f/\"", string("\r\n\t\u0000\u001f/"));
+	}
+}
@@ -2,7 +2,14 @@ package org.pb.x12;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Collectors;
 
 import org.junit.Test;
 
@@ -376,4 +383,416 @@ public class LoopTest {
 				loop.toXML());
 	}
 
+	@Test
+	public void testFindLoopNested() {
+		Loop loop = new Loop(new Context('~', '*', ':'), "X12");
+		Loop st = loop.addChild("ISA").addChild("GS").addChild("ST");
+		Loop first = st.addChild("2000");
+		first.addChild("2100");
+		Loop second = st.addChild("2000");
+		second.addChild("2100");
+		List<Loop> loops = loop.findLoop("2100");
+		assertEquals(2, loops.size());
+		assertSame(first.getLoop(0), loops.get(0));
+		assertSame(second.getLoop(0), loops.get(1));
+		assertTrue(loop.hasLoop("2100"));
+		assertFalse(loop.hasLoop("2110"));
+		assertFalse(first.hasLoop("2000"));
+		assertTrue(loop.findLoop("2110").isEmpty());
+	}
+
+	@Test
+	public void testFindLoopAfterChange() {
+		Loop loop = new Loop(new Context('~', '*', ':'), "X12");
+		Loop st = loop.addChild("ISA").addChild("GS").addChild("ST");
+		Loop first = st.addChild("2000");
+		assertEquals(1, loop.findLoop("2000").size());
+		assertFalse(loop.hasLoop("2100"));
+
+		Loop claim = first.addChild("2100");
+		assertEquals(1, loop.findLoop("2100").size());
+		st.addChild(0, "2000").addChild("2100");
+		List<Loop> loops = loop.findLoop("2100");
+		assertEquals(2, loops.size());
+		assertSame(claim, loops.get(1));
+
+		st.removeLoop(0);
+		assertEquals(1, loop.findLoop("2000").size());
+		first.setChild(0, "2110");
+		assertFalse(loop.hasLoop("2100"));
+		assertTrue(loop.hasLoop("2110"));
+		first.getLoop(0).setName("2100");
+		assertSame(first.getLoop(0), loop.findLoop("2100").get(0));
+		first.getLoops().clear();
+		assertFalse(loop.hasLoop("2100"));
+		loop.findLoop("2000").clear();
+		assertEquals(1, loop.findLoop("2000").size());
+	}
+
+	@Test
+	public void testFindSegmentAfterChange() {
+		Loop loop = new Loop(new Context('~', '*', ':'), "X12");
+		Loop st = loop.addChild("ST");
+		st.addSegment("ST*835*000000001");
+		Loop claim = st.addChild("2100");
+		claim.addSegment("CLP*1*1*100");
+		assertEquals(1, loop.findSegment("CLP").size());
+		assertTrue(loop.findSegment("SVC").isEmpty());
+
+		Segment first = st.addChild(0, "2100").addSegment("CLP*0*1*50");
+		List<Segment> found = loop.findSegment("CLP");
+		assertEquals(2, found.size());
+		assertSame(first, found.get(0));
+		claim.addSegment("SVC*HC:99213*50");
+		assertEquals(1, loop.findSegment("SVC").size());
+		claim.removeSegment(1);
+		assertTrue(loop.findSegment("SVC").isEmpty());
+		claim.setSegment(0, "CAS*PR*1*10");
+		assertEquals(1, loop.findSegment("CLP").size());
+		assertEquals(1, claim.findSegment("CAS").size());
+
+		first.setElement(0, "SVC");
+		assertEquals(0, loop.findSegment("CLP").size());
+		st.getLoop(0).setSegment(0, first);
+		assertSame(first, loop.findSegment("SVC").get(0));
+		st.getLoop(0).getSegments().clear();
+		assertTrue(loop.findSegment("SVC").isEmpty());
+		st.removeLoop(1);
+		assertTrue(loop.findSegment("CAS").isEmpty());
+		st.addSegment();
+		assertEquals(1, loop.findSegment("ST").size());
+	}
+
+	private Loop claims() {
+		Loop loop = new Loop(new Context('~', '*', ':'), "X12");
+		Loop st = loop.addChild("ST");
+		st.addSegment("ST*835*000000001");
+		for (int i = 1; i <= 3; i++) {
+			Loop claim = st.addChild("2100");
+			claim.addSegment("CLP*" + i + "*1*100");
+			Loop service = claim.addChild("2110");
+			service.addSegment("SVC*HC:99213*" + i);
+			service.addSegment("DTM*472*2002080" + i);
+		}
+		st.addChild("SE").addSegment("SE*11*000000001");
+		return loop;
+	}
+
+	@Test
+	public void testAccept() {
+		Loop loop = claims();
+		final StringBuilder events = new StringBuilder();
+		assertTrue(loop.findLoop("2110").get(0).accept(new LoopVisitor() {
+			public boolean enterLoop(Loop l) {
+				events.append('<').append(l.getName());
+				return true;
+			}
+
+			public boolean visitSegment(Segment s) {
+				events.append('|').append(s.getElement(0));
+				return true;
+			}
+
+			public boolean exitLoop(Loop l) {
+				events.append('>');
+				return true;
+			}
+		}));
+		assertEquals("<2110|SVC|DTM>", events.toString());
+
+		final List<Segment> found = new ArrayList<Segment>();
+		assertFalse(loop.accept(new LoopVisitor() {
+			public boolean visitSegment(Segment s) {
+				if ("SVC".equals(s.getElement(0))) {
+					found.add(s);
+				}
+				return found.size() < 2;
+			}
+		}));
+		assertEquals(2, found.size());
+		assertEquals("2", found.get(1).getElement(2));
+		assertTrue(loop.accept(new LoopVisitor() {
+		}));
+	}
+
+	@Test
+	public void testSegmentsDeep() {
+		Loop loop = claims();
+		List<Segment> expected = new ArrayList<Segment>();
+		loop.accept(new LoopVisitor() {
+			public boolean visitSegment(Segment s) {
+				expected.add(s);
+				return true;
+			}
+		});
+		List<Segment> actual = new ArrayList<Segment>();
+		for (Segment s : loop.segmentsDeep()) {
+			actual.add(s);
+		}
+		assertEquals(expected, actual);
+		assertEquals(11, actual.size());
+		assertEquals(loop.size(), loop.segmentStream().count());
+		assertEquals(3, loop.segmentStream().filter(s -> "DTM".equals(s.getElement(0))).count());
+		assertFalse(new Loop(loop.getContext(), "X12").segmentsDeep().iterator().hasNext());
+		Loop empty = new Loop(loop.getContext(), "X12");
+		empty.addChild("ST").addChild("2000");
+		assertFalse(empty.segmentsDeep().iterator().hasNext());
+	}
+
+	@Test
+	public void testLoopsNamed() {
+		Loop loop = claims();
+		List<Loop> actual = new ArrayList<Loop>();
+		for (Loop l : loop.loopsNamed("2110")) {
+			actual.add(l);
+		}
+		assertEquals(loop.findLoop("2110"), actual);
+		assertEquals(3, actual.size());
+		assertEquals(loop.findLoop("2100"), loop.loopStream("2100").collect(Collectors.toList()));
+		assertEquals(8, loop.loopStream(null).count());
+		assertFalse(loop.loopsNamed("2000").iterator().hasNext());
+		assertFalse(loop.loopsNamed("X12").iterator().hasNext());
+		try {
+			loop.loopsNamed("2000").iterator().next();
+			fail();
+		} catch (NoSuchElementException e) {
+			// no loop
+		}
+
+		Loop deep = new Loop(loop.getContext(), "X12");
+		Loop l = deep;
+		for (int i = 0; i < 20; i++) {
+			l = l.addChild("L" + i);
+		}
+		assertSame(l, deep.loopsNamed("L19").iterator().next());
+	}
+
+	@Test
+	public void testDeepHierarchy() {
+		Loop loop = new Loop(new Context('~', '*', ':'), "X12");
+		Loop l = loop;
+		for (int i = 0; i < 100000; i++) {
+			l = l.addChild("L");
+			l.addSegment("S*" + (i % 10));
+		}
+		assertEquals(100000, loop.size());
+		assertEquals(100000, loop.findLoop("L").size());
+		assertTrue(loop.hasLoop("L"));
+		assertEquals(100000, loop.findSegment("S").size());
+		String x12 = loop.toString();
+		assertTrue(x12.startsWith("S*0~S*1~"));
+		assertEquals(100000 * 4, x12.length());
+		String xml = loop.toXML();
+		assertTrue(xml.startsWith("<LOOP NAME=\"X12\"><LOOP NAME=\"L\"><S><S01><![CDATA[0]]></S01></S>"));
+		assertTrue(xml.endsWith("</LOOP></LOOP>"));
+		final int[] depth = new int[2];
+		assertTrue(loop.accept(new LoopVisitor() {
+			public boolean enterLoop(Loop l) {
+				depth[1] = Math.max(depth[1], ++depth[0]);
+				return true;
+			}
+
+			public boolean exitLoop(Loop l) {
+				depth[0]--;
+				return true;
+			}
+		}));
+		assertEquals(0, depth[0]);
+		assertEquals(100001, depth[1]);
+	}
+
+	@Test
+	public void testToStringWide() {
+		Loop loop = claims();
+		assertEquals("ST*835*000000001~CLP*1*1*100~SVC*HC:99213*1~DTM*472*20020801~"
+				+ "CLP*2*1*100~SVC*HC:99213*2~DTM*472*20020802~"
+				+ "CLP*3*1*100~SVC*HC:99213*3~DTM*472*20020803~SE*11*000000001~", loop.toString());
+		assertTrue(loop.toXML().startsWith("<LOOP NAME=\"X12\"><LOOP NAME=\"ST\"><ST>"));
+		assertTrue(loop.toXML().endsWith("<LOOP NAME=\"SE\"><SE><SE01><![CDATA[11]]></SE01>"
+				+ "<SE02><![CDATA[000000001]]></SE02></SE></LOOP></LOOP></LOOP>"));
+		assertEquals("<LOOP NAME=\"2110\"><SVC><SVC01><![CDATA[HC:99213]]></SVC01><SVC02><![CDATA[1]]></SVC02></SVC>"
+				+ "<DTM><DTM01><![CDATA[472]]></DTM01><DTM02><![CDATA[20020801]]></DTM02></DTM></LOOP>",
+				loop.findLoop("2110").get(0).toXML());
+	}
+
+	@Test
+	public void testWriteTo() throws Exception {
+		Loop loop = claims();
+		loop.findSegment("SE").get(0).addElement("");
+		StringWriter out = new StringWriter();
+		loop.writeTo(out);
+		assertEquals(loop.toString(), out.toString());
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		loop.findLoop("2100").get(1).writeTo(bytes);
+		assertEquals("CLP*2*1*100~SVC*HC:99213*2~DTM*472*20020802~", bytes.toString("ISO-8859-1"));
+		out = new StringWriter();
+		loop.writeTo(out, true);
+		assertTrue(out.toString().endsWith("~SE*11*000000001~"));
+	}
+
+	@Test
+	public void testWriteXML() throws Exception {
+		Loop loop = claims();
+		StringWriter out = new StringWriter();
+		loop.writeXML(out);
+		assertEquals(loop.toXML(), out.toString());
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		loop.findLoop("2110").get(0).writeXML(bytes);
+		assertEquals(loop.findLoop("2110").get(0).toXML(), bytes.toString("UTF-8"));
+	}
+
+	@Test
+	public void testWriteJSON() throws Exception {
+		Loop loop = new Loop(new Context('~', '*', ':'), "X12");
+		Loop st = loop.addChild("ST");
+		st.addSegment("ST*835*1");
+		st.addChild("2100").addSegment("CLP*1");
+		st.addChild("2100").addChild("2110").addSegment("SVC*HC:99213");
+		assertEquals("{\"name\":\"X12\",\"segments\":[],\"loops\":[{\"name\":\"ST\",\"segments\":["
+				+ "{\"id\":\"ST\",\"elements\":[\"835\",\"1\"]}],\"loops\":["
+				+ "{\"name\":\"2100\",\"segments\":[{\"id\":\"CLP\",\"elements\":[\"1\"]}],\"loops\":[]},"
+				+ "{\"name\":\"2100\",\"segments\":[],\"loops\":[{\"name\":\"2110\",\"segments\":["
+				+ "{\"id\":\"SVC\",\"elements\":[\"HC:99213\"]}],\"loops\":[]}]}]}]}", loop.toJSON());
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		st.getLoop(1).writeJSON(bytes);
+		assertEquals(st.getLoop(1).toJSON(), bytes.toString("UTF-8"));
+		assertTrue(claims().toJSON().endsWith("\"loops\":[]}]}]}"));
+	}
+
+	@Test
+	public void testMatchesRecursive() throws Exception {
+		assertMatchesRecursive(parse835(50), "2110", "SVC");
+		assertMatchesRecursive(build837(50), "2400", "SV1");
+	}
+
+	/**
+	 * Compares the tree methods with the recursive implementations they
+	 * replaced.
+	 */
+	private void assertMatchesRecursive(X12 x12, String loop, String segment) {
+		assertEquals(recursiveToString(x12), x12.toString());
+		assertEquals(recursiveToXML(x12), x12.toXML());
+		assertEquals(recursiveFindLoop(x12, loop), x12.findLoop(loop));
+		assertEquals(recursiveFindSegment(x12, segment), x12.findSegment(segment));
+		assertEquals(recursiveSize(x12), x12.size());
+		assertEquals(recursiveHasLoop(x12, loop), x12.hasLoop(loop));
+		assertEquals(recursiveHasLoop(x12, "NONE"), x12.hasLoop("NONE"));
+	}
+
+	private X12 parse835(int count) throws Exception {
+		String source = new String(Files.readAllBytes(Paths.get(getClass()
+				.getResource("/example835One.txt").toURI())));
+		int st = source.indexOf("ST*835");
+		int ge = source.indexOf("GE*");
+		StringBuilder x12 = new StringBuilder(source.substring(0, st));
+		for (int i = 0; i < count; i++) {
+			x12.append(source, st, ge);
+		}
+		x12.append(source.substring(ge));
+
+		Cf cfX12 = new Cf("X12");
+		Cf cfISA = cfX12.addChild("ISA", "ISA");
+		Cf cfGS = cfISA.addChild("GS", "GS");
+		Cf cfST = cfGS.addChild("ST", "ST", "835", 1);
+		cfST.addChild("1000A", "N1", "PR", 1);
+		cfST.addChild("1000B", "N1", "PE", 1);
+		Cf cf2000 = cfST.addChild("2000", "LX");
+		Cf cf2100 = cf2000.addChild("2100", "CLP");
+		cf2100.addChild("2110", "SVC");
+		cfGS.addChild("SE", "SE");
+		cfISA.addChild("GE", "GE");
+		cfX12.addChild("IEA", "IEA");
+		return (X12) new X12Parser(cfX12).parse(x12.toString());
+	}
+
+	private X12 build837(int count) {
+		X12 x12 = new X12(new Context('~', '*', ':'));
+		Loop st = x12.addChild("ISA").addChild("GS").addChild("ST");
+		st.addSegment("ST*837*0001*005010X222A1");
+		for (int i = 0; i < count; i++) {
+			Loop billing = st.addChild("2000A");
+			billing.addSegment("HL*" + i + "**20*1");
+			billing.addChild("2010AA").addSegment("NM1*85*2*CLINIC*****XX*1234567890");
+			Loop subscriber = billing.addChild("2000B");
+			subscriber.addSegment("HL*" + i + "*1*22*0");
+			subscriber.addChild("2010BA").addSegment("NM1*IL*1*DOE*JOHN****MI*123456789");
+			Loop claim = subscriber.addChild("2300");
+			claim.addSegment("CLM*" + i + "*150***11:B:1*Y*A*Y*Y");
+			claim.addSegment("HI*ABK:J449");
+			for (int j = 1; j <= 3; j++) {
+				Loop line = claim.addChild("2400");
+				line.addSegment("LX*" + j);
+				line.addSegment("SV1*HC:99213*50*UN*1***1");
+				line.addSegment("DTP*472*D8*20200101");
+			}
+		}
+		st.addSegment("SE*" + (count * 12 + 2) + "*0001");
+		return x12;
+	}
+
+	private static String recursiveToString(Loop loop) {
+		StringBuilder dump = new StringBuilder();
+		for (Segment s : loop.getSegments()) {
+			dump.append(s.toString(false));
+			dump.append(loop.getContext().getSegmentSeparator());
+		}
+		for (Loop l : loop.childList()) {
+			dump.append(recursiveToString(l));
+		}
+		return dump.toString();
+	}
+
+	private static String recursiveToXML(Loop loop) {
+		StringBuilder dump = new StringBuilder();
+		dump.append("<LOOP NAME=\"").append(loop.getName()).append("\">");
+		for (Segment s : loop.getSegments()) {
+			dump.append(s.toXML(false));
+		}
+		for (Loop l : loop.childList()) {
+			dump.append(recursiveToXML(l));
+		}
+		dump.append("</LOOP>");
+		return dump.toString();
+	}
+
+	private static boolean recursiveHasLoop(Loop loop, String name) {
+		for (Loop l : loop.childList()) {
+			if (name.equals(l.getName()) || recursiveHasLoop(l, name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static List<Loop> recursiveFindLoop(Loop loop, String name) {
+		List<Loop> foundLoops = new ArrayList<Loop>();
+		for (Loop l : loop.childList()) {
+			if (name.equals(l.getName())) {
+				foundLoops.add(l);
+			}
+			foundLoops.addAll(recursiveFindLoop(l, name));
+		}
+		return foundLoops;
+	}
+
+	private static List<Segment> recursiveFindSegment(Loop loop, String name) {
+		List<Segment> foundSegments = new ArrayList<Segment>();
+		for (Segment s : loop.getSegments()) {
+			if (name.equals(s.getElement(0))) {
+				foundSegments.add(s);
+			}
+		}
+		for (Loop l : loop.childList()) {
+			foundSegments.addAll(recursiveFindSegment(l, name));
+		}
+		return foundSegments;
+	}
+
+	private static int recursiveSize(Loop loop) {
+		int size = loop.getSegments().size();
+		for (Loop l : loop.childList()) {
+			size += recursiveSize(l);
+		}
+		return size;
+	}
 }
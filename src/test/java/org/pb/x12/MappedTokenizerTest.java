@@ -0,0 +1,139 @@
+package org.pb.x12;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedTokenizerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private List<String> segments(Tokenizer t) {
+		t.setContext(new Context('~', '*', ':'));
+		List<String> segments = new ArrayList<String>();
+		while (t.next()) {
+			segments.add(t.toString());
+		}
+		return segments;
+	}
+
+	private List<String> mapped(String source, int windowSize) throws IOException {
+		File f = folder.newFile();
+		Files.write(f.toPath(), source.getBytes(StandardCharsets.ISO_8859_1));
+		FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+		try {
+			return segments(new MappedTokenizer(channel, windowSize));
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Test
+	public void testNext() throws IOException {
+		String source = "ST*835*000000001~SE*24*000000001~";
+		assertEquals(segments(new CharTokenizer(source.toCharArray(), 0, source.length())),
+				mapped(source, MappedTokenizer.WINDOW_SIZE));
+	}
+
+	@Test
+	public void testNextWindows() throws IOException {
+		StringBuilder source = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			source.append("CLP*PCN").append(i).append("**").append(i * 7).append(".00");
+			source.append(i % 3 == 0 ? "~\r\n" : i % 3 == 1 ? "~\n" : "~");
+		}
+		String s = source.toString();
+		List<String> expected = segments(new CharTokenizer(s.toCharArray(), 0, s.length()));
+		for (int windowSize : new int[] { 32, 33, 34, 35, 64, 100 }) {
+			assertEquals(expected, mapped(s, windowSize));
+		}
+	}
+
+	@Test
+	public void testNewSegmentWindows() throws IOException {
+		File f = folder.newFile();
+		Files.write(f.toPath(), "N1*PR*ONE~N1*PE*TWO~N1*PE*THREE~".getBytes(StandardCharsets.ISO_8859_1));
+		FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+		List<Segment> segments = new ArrayList<Segment>();
+		try {
+			Tokenizer t = new MappedTokenizer(channel, 12);
+			Context context = new Context('~', '*', ':');
+			t.setContext(context);
+			while (t.next()) {
+				segments.add(t.newSegment(context));
+			}
+		} finally {
+			channel.close();
+		}
+		assertEquals(3, segments.size());
+		assertEquals("ONE", segments.get(0).getElement(2));
+		assertEquals("TWO", segments.get(1).getElement(2));
+		assertEquals("THREE", segments.get(2).getElement(2));
+	}
+	@Test
+	public void testSegmentLargerThanWindow() throws IOException {
+		try {
+			mapped("N1*PR*ONE~N1*PE*A LONG NAME THAT DOES NOT FIT~N1*PE*THREE~", 20);
+			fail();
+		} catch (UncheckedIOException e) {
+			assertTrue(e.getCause().getMessage().contains("Segment at 10"));
+		}
+		// the last segment may end at the end of the file without a separator
+		assertEquals(Arrays.asList("N1*PR*ONE", "N1*PE*LAST SEGMENT"),
+				mapped("N1*PR*ONE~N1*PE*LAST SEGMENT", 20));
+		try {
+			mapped("N1*PR*ONE~", MappedTokenizer.WINDOW_SIZE + 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testWindowBoundary() throws IOException {
+		// a sparse file one window long plus a segment crossing the boundary
+		File f = folder.newFile();
+		int boundary = MappedTokenizer.WINDOW_SIZE;
+		RandomAccessFile file = new RandomAccessFile(f, "rw");
+		try {
+			file.write("ST*835*1~".getBytes(StandardCharsets.ISO_8859_1));
+			file.seek(boundary - 10);
+			file.write("~CLP*PCN1**100.00~SE*4*1~".getBytes(StandardCharsets.ISO_8859_1));
+		} finally {
+			file.close();
+		}
+		FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+		try {
+			Tokenizer t = new MappedTokenizer(channel, MappedTokenizer.WINDOW_SIZE);
+			t.setContext(new Context('~', '*', ':'));
+			assertTrue(t.next());
+			assertEquals("ST*835*1", t.toString());
+			assertTrue(t.next());
+			assertEquals(1, t.size());
+			assertEquals(boundary - 19, t.elementLength(0));
+			assertTrue(t.next());
+			assertEquals("CLP*PCN1**100.00", t.toString());
+			assertTrue(t.next());
+			assertEquals("SE*4*1", t.toString());
+			assertFalse(t.next());
+		} finally {
+			channel.close();
+		}
+	}
+
+}
@@ -0,0 +1,164 @@
+package org.pb.x12;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ParallelTokenizerTest {
+
+	private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@AfterClass
+	public static void shutdown() {
+		POOL.shutdown();
+	}
+
+	private List<String> segments(Tokenizer t) {
+		t.setContext(new Context('~', '*', ':'));
+		List<String> segments = new ArrayList<String>();
+		while (t.next()) {
+			segments.add(t.toString() + " " + Arrays.asList(t.getElements()));
+		}
+		return segments;
+	}
+
+	private List<String> expected(String s) {
+		return segments(new CharTokenizer(s.toCharArray(), 0, s.length()));
+	}
+
+	private List<String> parallel(String s, int chunkSize) {
+		ByteBuffer buffer = ByteBuffer.wrap(s.getBytes(StandardCharsets.ISO_8859_1));
+		return segments(new ParallelTokenizer(buffer, POOL, chunkSize));
+	}
+
+	private List<String> mapped(String s, int windowSize, int chunkSize) throws IOException {
+		File f = folder.newFile();
+		Files.write(f.toPath(), s.getBytes(StandardCharsets.ISO_8859_1));
+		FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+		try {
+			return segments(new ParallelTokenizer(channel, windowSize, POOL, chunkSize));
+		} finally {
+			channel.close();
+		}
+	}
+
+	private String source() {
+		StringBuilder source = new StringBuilder("~");
+		for (int i = 0; i < 200; i++) {
+			source.append("CLP*PCN").append(i).append("**").append(i * 7).append(".00");
+			if (i % 5 == 0) {
+				source.append("***");
+			}
+			source.append(i % 3 == 0 ? "~\r\n" : i % 3 == 1 ? "~\n" : "~");
+			if (i % 17 == 0) {
+				source.append("~");
+			}
+		}
+		return source.append("SE*24").toString();
+	}
+
+	@Test
+	public void testNext() {
+		String s = "ST*835*000000001~SE*24*000000001~";
+		assertEquals(expected(s), parallel(s, ParallelTokenizer.CHUNK_SIZE));
+		assertEquals(expected(s), parallel(s, 1));
+		assertEquals(expected(""), parallel("", 1));
+	}
+
+	@Test
+	public void testNextChunks() {
+		String s = source();
+		List<String> expected = expected(s);
+		for (int chunkSize : new int[] { 1, 2, 3, 7, 16, 33, 100, 1000, ParallelTokenizer.CHUNK_SIZE }) {
+			assertEquals(expected, parallel(s, chunkSize));
+		}
+	}
+
+	@Test
+	public void testNextWindows() throws IOException {
+		String s = source();
+		List<String> expected = expected(s);
+		for (int windowSize : new int[] { 32, 33, 34, 35, 64, 100, 1000 }) {
+			for (int chunkSize : new int[] { 1, 5, 16, ParallelTokenizer.CHUNK_SIZE }) {
+				assertEquals(expected, mapped(s, windowSize, chunkSize));
+			}
+		}
+	}
+
+	@Test
+	public void testSegmentAcrossWindows() throws IOException {
+		// no segment ends in the first window after the leading separator
+		String s = "~N1*PE*EIGHTEEN CH~N1*PR*X~";
+		for (int windowSize : new int[] { 20, 21 }) {
+			for (int chunkSize : new int[] { 1, ParallelTokenizer.CHUNK_SIZE }) {
+				assertEquals(expected(s), mapped(s, windowSize, chunkSize));
+			}
+		}
+		try {
+			mapped("N1*PR*ONE~N1*PE*A LONG NAME THAT DOES NOT FIT~N1*PE*THREE~", 20, 1);
+			fail();
+		} catch (UncheckedIOException e) {
+			assertTrue(e.getCause().getMessage().contains("Segment at 10"));
+		}
+	}
+
+	@Test
+	public void testIndexSize() {
+		String s = source();
+		ParallelTokenizer whole = new ParallelTokenizer(ByteBuffer.wrap(s.getBytes(StandardCharsets.ISO_8859_1)),
+				POOL, ParallelTokenizer.CHUNK_SIZE);
+		whole.setContext(new Context('~', '*', ':'));
+		assertTrue(whole.next());
+		int separators = 0;
+		for (char c : s.toCharArray()) {
+			separators += c == '~' || c == '*' ? 1 : 0;
+		}
+		assertTrue(whole.indexSize() > separators);
+
+		// the index holds one batch of 4 chunks at a time
+		ParallelTokenizer t = new ParallelTokenizer(ByteBuffer.wrap(s.getBytes(StandardCharsets.ISO_8859_1)), POOL,
+				16);
+		t.setContext(new Context('~', '*', ':'));
+		int segments = 0;
+		while (t.next()) {
+			assertTrue(t.indexSize() < 4 * 40);
+			segments++;
+		}
+		assertEquals(expected(s).size(), segments);
+	}
+
+	@Test
+	public void testNewSegment() {
+		String s = "N1*PR*ONE~N1*PE*TWO~N1*PE*THREE~";
+		Tokenizer t = new ParallelTokenizer(ByteBuffer.wrap(s.getBytes(StandardCharsets.ISO_8859_1)), POOL, 4);
+		Context context = new Context('~', '*', ':');
+		t.setContext(context);
+		List<Segment> segments = new ArrayList<Segment>();
+		while (t.next()) {
+			segments.add(t.newSegment(context));
+		}
+		assertEquals(3, segments.size());
+		assertEquals("ONE", segments.get(0).getElement(2));
+		assertEquals("TWO", segments.get(1).getElement(2));
+		assertEquals("THREE", segments.get(2).getElement(2));
+	}
+}
@@ -2,6 +2,9 @@ package org.pb.x12;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
+import java.util.Iterator;
+
 import org.junit.Test;
 
 public class SegmentTest {
@@ -144,4 +147,194 @@ public class SegmentTest {
 				s.toXML());
 	}
 
+	@Test
+	public void testGetLong() {
+		Segment s = new Segment(new Context('~', '*', ':'));
+		s.addElements("CLP", "7722337", "1", "211366.97", "138018.4", "-20", "+15", "100.00",
+				"9223372036854775807");
+		assertEquals(7722337L, s.getLong(1));
+		assertEquals(1, s.getInt(2));
+		assertEquals(-20, s.getInt(5));
+		assertEquals(15L, s.getLong(6));
+		assertEquals(100L, s.getLong(7));
+		assertEquals(Long.MAX_VALUE, s.getLong(8));
+	}
+
+	@Test
+	public void testGetLongInvalid() {
+		Segment s = new Segment(new Context('~', '*', ':'));
+		s.addElements("CLP", "", "-", "1A", "1.5", "9223372036854775808", "2147483648", "1.2.3");
+		for (int i = 1; i < s.size(); i++) {
+			try {
+				s.getInt(i);
+				fail(s.getElement(i));
+			} catch (NumberFormatException e) {
+				assertTrue(i != 4);
+			} catch (ArithmeticException e) {
+				assertEquals(4, i);
+			}
+		}
+		assertEquals(2147483648L, s.getLong(6));
+	}
+
+	@Test
+	public void testGetDecimalUnscaled() {
+		Segment s = new Segment(new Context('~', '*', ':'));
+		s.addElements("CLP", "211366.97", "138018.4", "12", ".5", "-0.05", "10.500", "7.");
+		assertEquals(21136697L, s.getDecimalUnscaled(1, 2));
+		assertEquals(13801840L, s.getDecimalUnscaled(2, 2));
+		assertEquals(1200L, s.getDecimalUnscaled(3, 2));
+		assertEquals(50L, s.getDecimalUnscaled(4, 2));
+		assertEquals(-5L, s.getDecimalUnscaled(5, 2));
+		assertEquals(1050L, s.getDecimalUnscaled(6, 2));
+		assertEquals(700L, s.getDecimalUnscaled(7, 2));
+		assertEquals(211366970L, s.getDecimalUnscaled(1, 3));
+		try {
+			s.getDecimalUnscaled(1, 1);
+			fail();
+		} catch (ArithmeticException e) {
+			// 211366.97 has two decimal places
+		}
+		try {
+			s.getDecimalUnscaled(1, 14);
+			fail();
+		} catch (NumberFormatException e) {
+			// does not fit in a long
+		}
+	}
+
+	@Test
+	public void testGetDecimalUnscaledParsed() throws Exception {
+		X12Simple x12 = (X12Simple) new X12SimpleParser()
+				.parse("ISA*00*          *00*          *ZZ*SENDER         *ZZ*RECEIVER       "
+						+ "*020830*1234*U*00401*000000001*0*P*:~CLP*7722337*1*211366.97*138018.4**12*119932404007801~");
+		Segment clp = x12.findSegment("CLP").get(0);
+		assertEquals(7722337L, clp.getLong(1));
+		assertEquals(21136697L, clp.getDecimalUnscaled(3, 2));
+		assertEquals(13801840L, clp.getDecimalUnscaled(4, 2));
+		assertEquals(12, clp.getInt(6));
+		try {
+			clp.getLong(5);
+			fail();
+		} catch (NumberFormatException e) {
+			assertEquals("For input string: \"\"", e.getMessage());
+		}
+		try {
+			clp.getLong(8);
+			fail();
+		} catch (IndexOutOfBoundsException e) {
+			// no element
+		}
+	}
+
+	@Test
+	public void testIteratorRemove() throws Exception {
+		X12Simple x12 = (X12Simple) new X12SimpleParser()
+				.parse("ISA*00*          *00*          *ZZ*SENDER         *ZZ*RECEIVER       "
+						+ "*020830*1234*U*00401*000000001*0*P*:~CLP*7722337**211366.97**12~");
+		Segment clp = x12.findSegment("CLP").get(0);
+		for (Iterator<String> it = clp.iterator(); it.hasNext();) {
+			if (it.next().isEmpty()) {
+				it.remove();
+			}
+		}
+		assertEquals("CLP*7722337*211366.97*12", clp.toString());
+
+		Segment original = new Segment(new Context('~', '*', ':'));
+		original.addElements("NM1", "QC", "1", "PATIENT");
+		try {
+			original.share(original.getContext());
+			fail();
+		} catch (IllegalStateException e) {
+			// the elements have to be read only
+		}
+		original.setReadOnly();
+		Segment shared = original.share(original.getContext());
+		Iterator<String> it = shared.iterator();
+		it.next();
+		it.next();
+		it.remove();
+		assertEquals("NM1*1*PATIENT", shared.toString());
+		assertEquals("NM1*QC*1*PATIENT", original.toString());
+		it = original.iterator();
+		it.next();
+		it.remove();
+		assertEquals("QC*1*PATIENT", original.toString());
+		assertEquals("NM1*1*PATIENT", shared.toString());
+		try {
+			it.remove();
+			fail();
+		} catch (IllegalStateException e) {
+			// removed already
+		}
+	}
+
+	@Test
+	public void testSetDecimal() {
+		Segment s = new Segment(new Context('~', '*', ':'));
+		s.addElements("CLP", "", "", "", "", "", "", "", "");
+		s.setLong(1, 7722337L);
+		s.setDecimal(2, 21136697L, 2);
+		s.setDecimal(3, 13801840L, 2);
+		s.setDecimal(4, 1200L, 2);
+		s.setDecimal(5, -5L, 2);
+		s.setDecimal(6, 0L, 2);
+		s.setDecimal(7, -123L, 0);
+		s.setDecimal(8, Long.MIN_VALUE, 3);
+		assertEquals("CLP*7722337*211366.97*138018.4*12*-0.05*0*-123*-9223372036854775.808",
+				s.toString());
+		for (int i = 2; i < 6; i++) {
+			Segment copy = new Segment(s.getContext());
+			copy.addElement(s.getElement(i));
+			copy.setDecimal(0, s.getDecimalUnscaled(i, 2), 2);
+			assertEquals(s.getElement(i), copy.getElement(0));
+		}
+	}
+
+	@Test
+	public void testWriteTo() throws Exception {
+		Segment s = new Segment(new Context('~', '*', ':'));
+		s.addElements("CLP", "1", "", "3", "", "");
+		StringBuilder out = new StringBuilder("x");
+		s.writeTo(out);
+		assertEquals("xCLP*1**3**", out.toString());
+		assertEquals(s.toString(), out.substring(1));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		s.writeTo(bytes);
+		assertEquals("CLP*1**3**", bytes.toString("ISO-8859-1"));
+		out.setLength(0);
+		s.writeTo(out, true);
+		assertEquals("CLP*1**3", out.toString());
+		out.setLength(0);
+		new Segment(s.getContext()).writeTo(out);
+		assertEquals("", out.toString());
+	}
+
+	@Test
+	public void testWriteXML() throws Exception {
+		Segment s = new Segment(new Context('~', '*', ':'));
+		s.addElement("REF");
+		StringBuilder expected = new StringBuilder("<REF>");
+		for (int i = 1; i <= 120; i++) {
+			s.addElement(i % 7 == 0 ? "" : "V" + i);
+			expected.append("<REF" + String.format("%1$02d", i) + "><![CDATA[");
+			expected.append(s.getElement(i));
+			expected.append("]]></REF" + String.format("%1$02d", i) + ">");
+		}
+		expected.append("</REF>");
+		StringBuilder out = new StringBuilder();
+		s.writeXML(out);
+		assertEquals(expected.toString(), out.toString());
+		assertEquals(expected.toString(), s.toXML());
+	}
+
+	@Test
+	public void testWriteJSON() throws Exception {
+		Segment s = new Segment(new Context('~', '*', ':'));
+		s.addElements("NM1", "QC", "", "SMITH\"JR");
+		assertEquals("{\"id\":\"NM1\",\"elements\":[\"QC\",\"\",\"SMITH\\\"JR\"]}", s.toJSON());
+		StringBuilder out = new StringBuilder();
+		new Segment(s.getContext()).writeJSON(out);
+		assertEquals("{\"id\":null,\"elements\":[]}", out.toString());
+	}
 }
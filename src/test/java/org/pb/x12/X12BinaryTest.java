@@ -0,0 +1,113 @@
+package org.pb.x12;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class X12BinaryTest {
+
+	private X12 roundTrip(X12 x12) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		x12.writeBinary(out);
+		return X12.readBinary(new ByteArrayInputStream(out.toByteArray()));
+	}
+
+	private void assertSameLoops(Loop expected, Loop actual) {
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getDepth(), actual.getDepth());
+		assertEquals(expected.getSegments().size(), actual.getSegments().size());
+		for (int i = 0; i < expected.getSegments().size(); i++) {
+			assertEquals(expected.getSegment(i).getElements(), actual.getSegment(i).getElements());
+		}
+		assertEquals(expected.getLoops().size(), actual.getLoops().size());
+		for (int i = 0; i < expected.getLoops().size(); i++) {
+			assertSame(actual, actual.getLoop(i).getParent());
+			assertSameLoops(expected.getLoop(i), actual.getLoop(i));
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		X12 x12 = new X12(new Context('~', '*', ':'));
+		Loop st = x12.addChild("ISA").addChild("GS").addChild("ST");
+		st.addSegment("ST*835*000000001");
+		for (int i = 0; i < 3; i++) {
+			Loop claim = st.addChild("2100");
+			claim.addSegment("CLP*" + i + "**100.5*");
+			claim.addSegment().addElements("NM1", "QC", "1", "M\u00dcLLER\u20ac", null);
+			claim.addChild("2110").addSegment("SVC*HC:99213*50");
+		}
+		st.addSegment();
+		X12 read = roundTrip(x12);
+		assertSameLoops(x12, read);
+		assertEquals(x12.toString(), read.toString());
+		assertEquals("[~,*,:]", read.getContext().toString());
+		assertSame(read.getContext(), read.findSegment("SVC").get(2).getContext());
+		read.findSegment("CLP").get(0).setElement(1, "X");
+		assertEquals("CLP*X**100.5", read.findSegment("CLP").get(0).toString());
+		assertEquals(10050, read.findSegment("CLP").get(1).getDecimalUnscaled(3, 2));
+		assertEquals(50, read.findSegment("SVC").get(0).getInt(2));
+		assertEquals("M\u00dcLLER\u20ac", read.findSegment("NM1").get(2).getElement(3));
+	}
+
+	@Test
+	public void testRoundTripParsed() throws Exception {
+		StringBuilder source = new StringBuilder("ISA*00*          *00*          *ZZ*SENDER         "
+				+ "*ZZ*RECEIVER       *020830*1234*U*00401*000000001*0*P*:~GS*HP*S*R*20020830*1234*1*X*004010X091A1~");
+		for (int i = 0; i < 200; i++) {
+			source.append("ST*835*").append(i).append("~BPR*I*1000*C*CHK~LX*1~CLP*").append(i)
+					.append("*1*100*50**12~SVC*HC:99213*100*50~SE*6*").append(i).append("~");
+		}
+		source.append("GE*200*1~IEA*1*000000001~");
+		Cf cfX12 = new Cf("X12");
+		Cf cfISA = cfX12.addChild("ISA", "ISA");
+		Cf cfGS = cfISA.addChild("GS", "GS");
+		Cf cfST = cfGS.addChild("ST", "ST", "835", 1);
+		cfST.addChild("2000", "LX").addChild("2100", "CLP").addChild("2110", "SVC");
+		cfGS.addChild("SE", "SE");
+		cfISA.addChild("GE", "GE");
+		cfX12.addChild("IEA", "IEA");
+		X12 x12 = (X12) new X12Parser(cfX12).parse(source.toString());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		x12.writeBinary(out);
+		assertTrue(out.size() < source.length());
+		X12 read = X12.readBinary(new ByteArrayInputStream(out.toByteArray()));
+		assertSameLoops(x12, read);
+		assertEquals(source.toString(), read.toString());
+		assertEquals(x12.toXML(), read.toXML());
+	}
+
+	@Test
+	public void testReadInvalid() throws Exception {
+		try {
+			X12.readBinary(new ByteArrayInputStream("ISA*00".getBytes()));
+			fail();
+		} catch (IOException e) {
+			assertEquals("Not a binary X12 stream", e.getMessage());
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		X12 x12 = new X12(new Context('~', '*', ':'));
+		x12.addChild("ISA").addSegment("ISA*00");
+		x12.writeBinary(out);
+		byte[] bytes = out.toByteArray();
+		try {
+			X12.readBinary(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 1)));
+			fail();
+		} catch (EOFException e) {
+			// truncated
+		}
+		bytes[4] = 9;
+		try {
+			X12.readBinary(new ByteArrayInputStream(bytes));
+			fail();
+		} catch (IOException e) {
+			assertEquals("Unsupported binary X12 version 9", e.getMessage());
+		}
+	}
+}
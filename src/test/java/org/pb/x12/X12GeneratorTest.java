@@ -0,0 +1,213 @@
+package org.pb.x12;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+public class X12GeneratorTest {
+
+	private Cf loadCf835() {
+		Cf cfX12 = new Cf("X12");
+		Cf cfISA = cfX12.addChild("ISA", "ISA");
+		Cf cfGS = cfISA.addChild("GS", "GS");
+		Cf cfST = cfGS.addChild("ST", "ST", "835", 1);
+		cfST.addChild("1000A", "N1", "PR", 1);
+		cfST.addChild("1000B", "N1", "PE", 1);
+		Cf cf2000 = cfST.addChild("2000", "LX");
+		Cf cf2100 = cf2000.addChild("2100", "CLP");
+		cf2100.addChild("2110", "SVC");
+		cfGS.addChild("SE", "SE");
+		cfISA.addChild("GE", "GE");
+		cfX12.addChild("IEA", "IEA");
+		return cfX12;
+	}
+
+	private Cf loadCf837() {
+		Cf cfX12 = new Cf("X12");
+		Cf cfISA = cfX12.addChild("ISA", "ISA");
+		Cf cfGS = cfISA.addChild("GS", "GS");
+		Cf cfST = cfGS.addChild("ST", "ST", "837", 1);
+		cfST.addChild("1000A", "NM1", "41", 1);
+		cfST.addChild("1000B", "NM1", "40", 1);
+		Cf cf2000A = cfST.addChild("2000A", "HL", "20", 3);
+		cf2000A.addChild("2010AA", "NM1", "85", 1);
+		Cf cf2000B = cf2000A.addChild("2000B", "HL", "22", 3);
+		cf2000B.addChild("2010BA", "NM1", "IL", 1);
+		cf2000B.addChild("2010BB", "NM1", "PR", 1);
+		Cf cf2300 = cf2000B.addChild("2300", "CLM");
+		cf2300.addChild("2310B", "NM1", "82", 1);
+		cf2300.addChild("2400", "LX");
+		cfGS.addChild("SE", "SE");
+		cfISA.addChild("GE", "GE");
+		cfX12.addChild("IEA", "IEA");
+		return cfX12;
+	}
+
+	/**
+	 * Checks the control numbers and the counts of the envelopes.
+	 */
+	private void assertEnvelopes(X12Simple x12, int interchanges, int groups, int transactions) {
+		int isa = 0;
+		int gs = 0;
+		int st = 0;
+		int segments = 0;
+		for (Segment s : x12) {
+			String id = s.getElement(0);
+			segments++;
+			if (id.equals("ISA")) {
+				isa++;
+				gs = 0;
+				assertEquals(9, s.getElement(13).length());
+				assertEquals(isa, Integer.parseInt(s.getElement(13)));
+			} else if (id.equals("GS")) {
+				gs++;
+				st = 0;
+			} else if (id.equals("ST")) {
+				st++;
+				segments = 1;
+				assertEquals(st, Integer.parseInt(s.getElement(2)));
+			} else if (id.equals("SE")) {
+				assertEquals(segments, Integer.parseInt(s.getElement(1)));
+				assertEquals(st, Integer.parseInt(s.getElement(2)));
+			} else if (id.equals("GE")) {
+				assertEquals(transactions, st);
+				assertEquals(st, Integer.parseInt(s.getElement(1)));
+			} else if (id.equals("IEA")) {
+				assertEquals(groups, gs);
+				assertEquals(gs, Integer.parseInt(s.getElement(1)));
+				assertEquals(isa, Integer.parseInt(s.getElement(2)));
+			}
+		}
+		assertEquals(interchanges, isa);
+	}
+
+	@Test
+	public void testGenerate835() throws Exception {
+		X12Generator generator = new X12Generator("835");
+		generator.setInterchanges(2);
+		generator.setGroups(2);
+		generator.setTransactions(3);
+		generator.setClaims(25);
+		generator.setServiceLines(3);
+		String source = generator.generate();
+		assertEquals('~', source.charAt(X12Parser.POS_SEGMENT));
+		assertEquals(':', source.charAt(X12Parser.POS_COMPOSITE_ELEMENT));
+
+		X12 x12 = (X12) new X12Parser(loadCf835()).parse(source);
+		assertEquals(source, x12.toString());
+		assertEquals(2 * 2 * 3 * 3, x12.findLoop("2000").size());
+		assertEquals(2 * 2 * 3 * 25, x12.findLoop("2100").size());
+		assertEquals(2 * 2 * 3 * 25 * 3, x12.findLoop("2110").size());
+		assertEnvelopes((X12Simple) new X12SimpleParser().parse(source), 2, 2, 3);
+
+		// the payment is the sum of the service lines paid
+		Loop st = x12.findLoop("ST").get(0);
+		long total = 0;
+		for (Segment amt : st.findSegment("AMT")) {
+			total += Math.round(Double.parseDouble(amt.getElement(2)) * 100);
+		}
+		assertEquals(total, Math.round(Double.parseDouble(st.findSegment("BPR").get(0).getElement(2)) * 100));
+	}
+
+	@Test
+	public void testGenerate837() throws Exception {
+		X12Generator generator = new X12Generator("837");
+		generator.setTransactions(2);
+		generator.setClaims(30);
+		generator.setServiceLines(4);
+		String source = generator.generate();
+
+		X12 x12 = (X12) new X12Parser(loadCf837()).parse(source);
+		assertEquals(source, x12.toString());
+		assertEquals(2, x12.findLoop("2000A").size());
+		assertEquals(60, x12.findLoop("2000B").size());
+		assertEquals(60, x12.findLoop("2300").size());
+		assertEquals(60, x12.findLoop("2310B").size());
+		assertEquals(240, x12.findLoop("2400").size());
+		assertEnvelopes((X12Simple) new X12SimpleParser().parse(source), 1, 1, 2);
+
+		// the claim charge is the sum of the service lines
+		Loop claim = x12.findLoop("2300").get(0);
+		long total = 0;
+		for (Segment sv1 : claim.findSegment("SV1")) {
+			total += Math.round(Double.parseDouble(sv1.getElement(2)) * 100);
+		}
+		assertEquals(total, Math.round(Double.parseDouble(claim.getSegment(0).getElement(2)) * 100));
+	}
+
+	@Test
+	public void testSeed() {
+		X12Generator generator = new X12Generator("837");
+		String first = generator.generate();
+		assertEquals(first, generator.generate());
+		assertEquals(first, new X12Generator("837").generate());
+		generator.setSeed(1);
+		assertFalse(first.equals(generator.generate()));
+	}
+
+	@Test
+	public void testSpecialChars() throws Exception {
+		X12Generator generator = new X12Generator("835");
+		generator.setClaims(12);
+		String plain = generator.generate();
+		generator.setContext(new Context('^', '*', ':'));
+		generator.setLineSeparator("\n");
+		File file = File.createTempFile("x12-generator", ".txt");
+		try {
+			generator.write(file);
+			String source = new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1);
+			assertEquals(generator.generate(), source);
+			assertTrue(source.startsWith("ISA*00*"));
+			assertEquals('^', source.charAt(X12Parser.POS_SEGMENT));
+			assertEquals('\n', source.charAt(X12Parser.POS_SEGMENT + 1));
+
+			X12Simple x12 = (X12Simple) new X12SimpleParser().parse(file);
+			assertEquals(plain.replace('~', '^'), x12.toString());
+			X12 loops = (X12) new X12Parser(loadCf835()).parse(file);
+			assertEquals(12, loops.findLoop("2100").size());
+		} finally {
+			file.delete();
+		}
+
+		generator.setContext(new Context('!', '|', '>'));
+		generator.setLineSeparator("\r\n");
+		X12Simple x12 = (X12Simple) new X12SimpleParser().parse(generator.generate());
+		assertEquals(plain.replace('~', '!').replace('*', '|').replace(':', '>'), x12.toString());
+	}
+
+	@Test
+	public void testInvalidSettings() {
+		X12Generator generator = new X12Generator("835");
+		try {
+			generator.setContext(new Context('~', '~', ':'));
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			generator.setContext(new Context('A', '*', ':'));
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			generator.setClaims(0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			new X12Generator("270");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
@@ -1,11 +1,29 @@
 package org.pb.x12;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Test;
 
@@ -146,4 +164,378 @@ public class X12ParserTest {
 		assertEquals(28, x12.size());
 	}
 
+	@Test
+	public void testParseByteBuffer() throws Exception {
+		X12Parser parser = new X12Parser(loadCf());
+		URL url = this.getClass().getResource("/example835One.txt");
+		byte[] bytes = Files.readAllBytes(Paths.get(url.toURI()));
+
+		X12 x12 = (X12) parser.parse(ByteBuffer.wrap(bytes));
+
+		assertEquals(EXPECTED_X12_TOSTRING, x12.toString());
+		assertEquals(EXPECTED_X12_TOXML, x12.toXML());
+		assertEquals(28, x12.size());
+
+		ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+		direct.put(bytes).flip();
+		x12 = (X12) parser.parse(direct);
+
+		assertEquals(EXPECTED_X12_TOSTRING, x12.toString());
+		assertEquals(EXPECTED_X12_TOXML, x12.toXML());
+	}
+
+	@Test
+	public void testParsePath() throws Exception {
+		X12Parser parser = new X12Parser(loadCf());
+		URL url = this.getClass().getResource("/example835One.txt");
+
+		X12 x12 = (X12) parser.parse(Paths.get(url.toURI()));
+
+		assertEquals(EXPECTED_X12_TOSTRING, x12.toString());
+		assertEquals(EXPECTED_X12_TOXML, x12.toXML());
+		assertEquals(28, x12.size());
+	}
+
+	private static class EventRecorder implements X12Handler {
+		List<String> events = new ArrayList<String>();
+
+		public void startInterchange(Context context) {
+			events.add("startInterchange " + context);
+		}
+
+		public void startLoop(Cf cf) {
+			events.add("startLoop " + cf.getName());
+		}
+
+		public void segment(Segment segment) {
+			events.add(segment.toString());
+		}
+
+		public void endLoop(Cf cf) {
+			events.add("endLoop " + cf.getName());
+		}
+
+		public void endInterchange() {
+			events.add("endInterchange");
+		}
+	}
+
+	private void treeEvents(Loop loop, List<String> events) {
+		events.add("startLoop " + loop.getName());
+		for (Segment s : loop) {
+			events.add(s.toString());
+		}
+		for (Loop l : loop.childList()) {
+			treeEvents(l, events);
+		}
+		events.add("endLoop " + loop.getName());
+	}
+
+	@Test
+	public void testParseHandler() throws FormatException {
+		X12Parser parser = new X12Parser(loadCf());
+		EventRecorder recorder = new EventRecorder();
+		parser.parse(EXPECTED_X12_TOSTRING, recorder);
+
+		assertEquals("startInterchange [~,*,:]", recorder.events.get(0));
+		assertEquals("startLoop ISA", recorder.events.get(1));
+		assertEquals("ISA*00*          *00*          *ZZ*SENDERID       *ZZ*RECEIVERID    *030409*0701*U*00401*0000000001*0*T*:",
+				recorder.events.get(2));
+		assertEquals("startLoop GS", recorder.events.get(3));
+		assertEquals("endInterchange", recorder.events.get(recorder.events.size() - 1));
+
+		X12 x12 = (X12) parser.parse(EXPECTED_X12_TOSTRING);
+		List<String> expected = new ArrayList<String>();
+		treeEvents(x12, expected);
+		expected.set(0, "startInterchange [~,*,:]");
+		expected.set(expected.size() - 1, "endInterchange");
+		assertEquals(expected, recorder.events);
+	}
+
+
+	@Test
+	public void testParseConcurrent() throws Exception {
+		final X12Parser parser = new X12Parser(loadCf());
+		URL url = this.getClass().getResource("/example835One.txt");
+		final Path path = Paths.get(url.toURI());
+		final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+		final String expectedXML = ((X12) parser.parse(EXPECTED_X12_TOSTRING)).toXML();
+
+		int threads = 8;
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+			for (int t = 0; t < threads; t++) {
+				final int source = t % 4;
+				results.add(executor.submit(new Callable<Integer>() {
+					public Integer call() throws Exception {
+						start.await();
+						int parsed = 0;
+						for (int i = 0; i < 200; i++) {
+							EDI x12;
+							switch (source) {
+							case 0:
+								x12 = parser.parse(EXPECTED_X12_TOSTRING);
+								break;
+							case 1:
+								x12 = parser.parse(buffer);
+								break;
+							case 2:
+								x12 = parser.parse(path);
+								break;
+							default:
+								x12 = parser.parse(new ByteArrayInputStream(
+										EXPECTED_X12_TOSTRING.getBytes()));
+								break;
+							}
+							assertEquals(EXPECTED_X12_TOSTRING, x12.toString());
+							assertEquals(expectedXML, ((X12) x12).toXML());
+							parsed++;
+						}
+						return parsed;
+					}
+				}));
+			}
+			start.countDown();
+			for (Future<Integer> result : results) {
+				assertEquals(Integer.valueOf(200), result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private byte[] interchanges() throws Exception {
+		URL url = this.getClass().getResource("/example835SpecialCharsOne.txt");
+		byte[] special = Files.readAllBytes(Paths.get(url.toURI()));
+		byte[] one = EXPECTED_X12_TOSTRING.getBytes("ISO-8859-1");
+		byte[] bytes = new byte[one.length * 2 + special.length];
+		System.arraycopy(one, 0, bytes, 0, one.length);
+		System.arraycopy(special, 0, bytes, one.length, special.length);
+		System.arraycopy(one, 0, bytes, one.length + special.length, one.length);
+		return bytes;
+	}
+
+	private void assertInterchanges(X12Parser parser, List<X12> x12s) throws Exception {
+		URL url = this.getClass().getResource("/example835SpecialCharsOne.txt");
+		X12 special = (X12) parser.parse(Paths.get(url.toURI()));
+
+		assertEquals(3, x12s.size());
+		assertEquals(EXPECTED_X12_TOSTRING, x12s.get(0).toString());
+		assertEquals(EXPECTED_X12_TOXML, x12s.get(0).toXML());
+		assertEquals(Character.valueOf('^'), x12s.get(1).getContext().getSegmentSeparator());
+		assertEquals(special.toString(), x12s.get(1).toString());
+		assertEquals(special.toXML(), x12s.get(1).toXML());
+		assertEquals(EXPECTED_X12_TOSTRING, x12s.get(2).toString());
+	}
+
+	@Test
+	public void testParseInterchanges() throws Exception {
+		X12Parser parser = new X12Parser(loadCf());
+		byte[] bytes = interchanges();
+
+		assertInterchanges(parser, parser.parseInterchanges(ByteBuffer.wrap(bytes)));
+
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+			direct.put(bytes).flip();
+			assertInterchanges(parser, parser.parseInterchanges(direct, pool));
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(0, parser.parseInterchanges(ByteBuffer.allocate(0)).size());
+	}
+
+	@Test
+	public void testParseInterchangesPath() throws Exception {
+		X12Parser parser = new X12Parser(loadCf());
+		Path path = Files.createTempFile("interchanges", ".txt");
+		try {
+			Files.write(path, interchanges());
+			assertInterchanges(parser, parser.parseInterchanges(path));
+			assertInterchanges(parser, parser.parseInterchanges(path, ForkJoinPool.commonPool(), 900));
+			try {
+				parser.parseInterchanges(path, ForkJoinPool.commonPool(), 500);
+				fail("Expected IOException");
+			} catch (IOException e) {
+				// interchange larger than the window
+			}
+
+			Files.write(path, new byte[0]);
+			assertEquals(0, parser.parseInterchanges(path).size());
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	@Test
+	public void testParseInterchangesNoISA() throws Exception {
+		X12Parser parser = new X12Parser(loadCf());
+		StringBuilder source = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			source.append("LX*").append(i).append('~');
+		}
+		byte[] bytes = source.toString().getBytes();
+		try {
+			parser.parseInterchanges(ByteBuffer.wrap(bytes));
+			fail("Expected FormatException");
+		} catch (FormatException e) {
+			// no ISA segment
+		}
+		Path path = Files.createTempFile("interchanges", ".txt");
+		try {
+			Files.write(path, bytes);
+			for (int windowSize : new int[] { 200, 2000 }) {
+				try {
+					parser.parseInterchanges(path, ForkJoinPool.commonPool(), windowSize);
+					fail("Expected FormatException");
+				} catch (FormatException e) {
+					// no ISA segment, whether the file fits in a window or not
+				}
+			}
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	@Test(expected = FormatException.class)
+	public void testParseInterchangesFormatException() throws Exception {
+		X12Parser parser = new X12Parser(loadCf());
+		parser.parseInterchanges(ByteBuffer.wrap((EXPECTED_X12_TOSTRING + "ISA*00~").getBytes()));
+	}
+
+	private String transactions(int count, String type) {
+		int st = EXPECTED_X12_TOSTRING.indexOf("ST*835");
+		int ge = EXPECTED_X12_TOSTRING.indexOf("GE*");
+		String transaction = EXPECTED_X12_TOSTRING.substring(st, ge);
+		StringBuilder source = new StringBuilder(EXPECTED_X12_TOSTRING.substring(0, st));
+		for (int i = 0; i < count; i++) {
+			source.append(i == count / 2 ? transaction.replace("ST*835", "ST*" + type) : transaction);
+		}
+		return source.append(EXPECTED_X12_TOSTRING.substring(ge)).toString();
+	}
+
+	private void assertSameLoops(Loop expected, Loop actual) {
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getDepth(), actual.getDepth());
+		assertEquals(expected.getSegments().size(), actual.getSegments().size());
+		assertEquals(expected.getLoops().size(), actual.getLoops().size());
+		for (int i = 0; i < expected.getLoops().size(); i++) {
+			assertEquals(actual, actual.getLoop(i).getParent());
+			assertSameLoops(expected.getLoop(i), actual.getLoop(i));
+		}
+	}
+
+	private void assertParseTransactions(X12Parser parser, String source, ForkJoinPool pool)
+			throws FormatException {
+		X12 expected = (X12) parser.parse(source);
+		X12 x12 = (X12) parser.parseTransactions(ByteBuffer.wrap(source.getBytes()), pool);
+		assertEquals(expected.toString(), x12.toString());
+		assertEquals(expected.toXML(), x12.toXML());
+		assertSameLoops(expected, x12);
+	}
+
+	@Test
+	public void testParseTransactions() throws Exception {
+		X12Parser parser = new X12Parser(loadCf());
+		ForkJoinPool pool = new ForkJoinPool(3);
+		try {
+			assertParseTransactions(parser, EXPECTED_X12_TOSTRING, pool);
+			assertParseTransactions(parser, transactions(2, "835"), pool);
+			assertParseTransactions(parser, transactions(50, "835"), pool);
+			assertParseTransactions(parser, transactions(50, "837"), pool);
+			assertParseTransactions(parser, transactions(7, "835") + transactions(9, "835"), pool);
+
+			TransactionSetParser split = new TransactionSetParser(loadCf().compile());
+			assertNotNull(split.parse(ByteBuffer.wrap(transactions(50, "835").getBytes()), pool, null));
+			assertNull(split.parse(ByteBuffer.wrap(transactions(1, "835").getBytes()), pool, null));
+
+			X12 x12 = (X12) parser.parseTransactions(ByteBuffer.wrap(transactions(50, "835").getBytes()));
+			assertEquals(50, x12.findLoop("ST").size());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testParseTransactionsNested() throws Exception {
+		Cf cf = loadCf();
+		Cf cfGS = cf.childList().get(0).childList().get(0);
+		Cf cfST = cfGS.childList().get(0);
+		cfGS.childList().remove(cfGS.childList().size() - 1);
+		cfST.addChild("SE", "SE");
+		X12Parser parser = new X12Parser(cf);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			assertParseTransactions(parser, transactions(30, "835"), pool);
+			assertNotNull(new TransactionSetParser(cf.compile()).parse(
+					ByteBuffer.wrap(transactions(30, "835").getBytes()), pool, null));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testParseTransactionsPath() throws Exception {
+		X12Parser parser = new X12Parser(loadCf());
+		Path path = Files.createTempFile("transactions", ".txt");
+		try {
+			String source = transactions(20, "835");
+			Files.write(path, source.getBytes());
+			X12 x12 = (X12) parser.parseTransactions(path);
+			assertEquals(source, x12.toString());
+			assertEquals(((X12) parser.parse(source)).toXML(), x12.toXML());
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	@Test
+	public void testParseParallel() throws Exception {
+		X12Parser parser = new X12Parser(loadCf());
+		String source = transactions(4000, "835");
+		X12 expected = (X12) parser.parse(source);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		Path path = Files.createTempFile("parallel", ".txt");
+		try {
+			X12 x12 = (X12) parser.parse(ByteBuffer.wrap(source.getBytes()), pool);
+			assertEquals(expected.toString(), x12.toString());
+			assertSameLoops(expected, x12);
+
+			Files.write(path, source.getBytes());
+			x12 = (X12) parser.parse(path, pool);
+			assertEquals(expected.toString(), x12.toString());
+			assertSameLoops(expected, x12);
+		} finally {
+			Files.delete(path);
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testParseIntern() throws Exception {
+		Cf cf = loadCf();
+		Cf cfCLP = cf.childList().get(0).childList().get(0).childList().get(0)
+				.childList().get(2).childList().get(0);
+		assertEquals("CLP", cfCLP.getSegment());
+		X12Parser parser = new X12Parser(cf, true);
+		byte[] bytes = EXPECTED_X12_TOSTRING.getBytes();
+
+		for (EDI edi : new EDI[] { parser.parse(EXPECTED_X12_TOSTRING),
+				parser.parse(ByteBuffer.wrap(bytes)),
+				parser.parseTransactions(ByteBuffer.wrap(transactions(3, "835").getBytes())) }) {
+			X12 x12 = (X12) edi;
+			List<Segment> clp = x12.findSegment("CLP");
+			assertSame(cfCLP.getSegment(), clp.get(0).getElement(0));
+			assertSame(cfCLP.getSegment(), clp.get(1).getElement(0));
+			List<Segment> cas = x12.findSegment("CAS");
+			assertSame(cas.get(0).getElement(1), cas.get(1).getElement(1));
+			assertNotSame(cas.get(0).getElement(3), cas.get(1).getElement(3));
+		}
+		X12 x12 = (X12) parser.parse(EXPECTED_X12_TOSTRING);
+		assertEquals(EXPECTED_X12_TOSTRING, x12.toString());
+		assertEquals(EXPECTED_X12_TOXML, x12.toXML());
+	}
 }
@@ -0,0 +1,168 @@
+package org.pb.x12;
+
+import static org.junit.Assert.*;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+public class X12ReaderTest {
+
+	private Cf loadCf() {
+		Cf cfX12 = new Cf("X12");
+		Cf cfISA = cfX12.addChild("ISA", "ISA");
+		Cf cfGS = cfISA.addChild("GS", "GS");
+		Cf cfST = cfGS.addChild("ST", "ST", "835", 1);
+		cfST.addChild("1000A", "N1", "PR", 1);
+		cfST.addChild("1000B", "N1", "PE", 1);
+		Cf cf2000 = cfST.addChild("2000", "LX");
+		Cf cf2100 = cf2000.addChild("2100", "CLP");
+		cf2100.addChild("2110", "SVC");
+		cfGS.addChild("SE", "SE");
+		cfISA.addChild("GE", "GE");
+		cfX12.addChild("IEA", "IEA");
+		return cfX12;
+	}
+
+	@Test
+	public void testNext() throws FormatException {
+		X12Reader reader = new X12Reader(loadCf(), X12ParserTest.EXPECTED_X12_TOSTRING);
+		assertEquals("[~,*,:]", reader.getContext().toString());
+		assertEquals(X12Reader.LOOP_START, reader.next());
+		assertEquals("ISA", reader.getCf().getName());
+		assertEquals(X12Reader.SEGMENT, reader.next());
+		assertEquals("ISA", reader.getCf().getName());
+		assertEquals(17, reader.getElementCount());
+		assertTrue(reader.elementEquals(0, "ISA"));
+		assertEquals(X12Reader.LOOP_START, reader.next());
+		assertEquals("GS", reader.getCf().getName());
+		assertEquals(X12Reader.SEGMENT, reader.next());
+		assertEquals("1212", reader.getElement(1));
+
+		int segments = 2;
+		int loops = 2;
+		int ends = 0;
+		while (reader.hasNext()) {
+			switch (reader.next()) {
+			case X12Reader.LOOP_START:
+				loops++;
+				break;
+			case X12Reader.SEGMENT:
+				segments++;
+				break;
+			case X12Reader.LOOP_END:
+				ends++;
+				break;
+			}
+		}
+		assertEquals(28, segments);
+		assertEquals(loops, ends);
+		assertEquals(X12Reader.LOOP_END, reader.getEvent());
+		assertEquals("IEA", reader.getCf().getName());
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void testNextEnd() throws FormatException {
+		X12Reader reader = new X12Reader(loadCf(), X12ParserTest.EXPECTED_X12_TOSTRING);
+		while (reader.hasNext()) {
+			reader.next();
+		}
+		reader.next();
+	}
+
+	@Test
+	public void testElementChars() throws FormatException {
+		X12Reader reader = new X12Reader(loadCf(), X12ParserTest.EXPECTED_X12_TOSTRING);
+		reader.next();
+		reader.next();
+		assertEquals(15, reader.getElementLength(6));
+		assertEquals('S', reader.getElementChar(6, 0));
+		assertEquals(' ', reader.getElementChar(6, 14));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testGetElementLoopStart() throws FormatException {
+		X12Reader reader = new X12Reader(loadCf(), X12ParserTest.EXPECTED_X12_TOSTRING);
+		reader.next();
+		reader.getElement(0);
+	}
+
+	@Test
+	public void testReadLoop() throws FormatException {
+		X12Reader reader = new X12Reader(loadCf(), X12ParserTest.EXPECTED_X12_TOSTRING);
+		List<Loop> claims = new ArrayList<Loop>();
+		while (reader.hasNext()) {
+			if (reader.next() == X12Reader.LOOP_START
+					&& reader.getCf().getName().equals("2100")) {
+				claims.add(reader.readLoop());
+				assertEquals(X12Reader.LOOP_END, reader.getEvent());
+				assertEquals("2100", reader.getCf().getName());
+			}
+		}
+		assertEquals(2, claims.size());
+		assertNull(claims.get(0).getParent());
+		assertEquals("CLP*PCN123456789**5555.55**CCN987654321~"
+				+ "CAS*PR*909099*100.00~"
+				+ "NM1*QC*1*PATIENT*TREATED*ONE***34*333333333~"
+				+ "DTM*273*20020824~"
+				+ "AMT*A1*10.10~"
+				+ "AMT*A2*20.20~", claims.get(0).toString());
+		assertEquals("4444.44", claims.get(1).getSegment(0).getElement(3));
+	}
+
+	@Test
+	public void testReadLoopNested() throws FormatException {
+		X12Reader reader = new X12Reader(loadCf(), X12ParserTest.EXPECTED_X12_TOSTRING);
+		reader.next();
+		Loop isa = reader.readLoop();
+		assertEquals("ISA", isa.getName());
+		assertEquals(27, isa.size());
+		assertTrue(reader.hasNext());
+		assertEquals(X12Reader.LOOP_START, reader.next());
+		assertEquals("IEA", reader.getCf().getName());
+	}
+
+	@Test
+	public void testPath() throws Exception {
+		URL url = this.getClass().getResource("/example835One.txt");
+		X12Reader reader = new X12Reader(loadCf(), Paths.get(url.toURI()));
+		int segments = 0;
+		try {
+			while (reader.hasNext()) {
+				if (reader.next() == X12Reader.SEGMENT) {
+					segments++;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		assertEquals(28, segments);
+	}
+
+	@Test(expected = FormatException.class)
+	public void testFormatException() throws FormatException {
+		new X12Reader(loadCf(), "ISA*00~");
+	}
+
+	@Test
+	public void testInputStream() throws Exception {
+		InputStream is = this.getClass().getResourceAsStream("/example835One.txt");
+		X12Reader reader = new X12Reader(loadCf(), is);
+		List<Loop> claims = new ArrayList<Loop>();
+		while (reader.hasNext()) {
+			if (reader.next() == X12Reader.LOOP_START
+					&& reader.getCf().getName().equals("2100")) {
+				claims.add(reader.readLoop());
+			}
+		}
+		is.close();
+		assertEquals(2, claims.size());
+		assertEquals("5555.55", claims.get(0).getSegment(0).getElement(3));
+	}
+
+}
@@ -6,6 +6,11 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Test;
 
@@ -123,4 +128,66 @@ public class X12SimpleParserTest {
 		assertEquals(inputString, x12.toString());
 	}
 
+	@Test
+	public void testParseByteBuffer() throws Exception {
+		X12SimpleParser parser = new X12SimpleParser();
+		URL url = this.getClass().getResource("/example835One.txt");
+		byte[] bytes = Files.readAllBytes(Paths.get(url.toURI()));
+		X12Simple expected = (X12Simple) parser.parse(new String(bytes, "ISO-8859-1"));
+
+		X12Simple x12 = (X12Simple) parser.parse(ByteBuffer.wrap(bytes));
+
+		assertEquals(expected.toString(), x12.toString());
+		assertEquals(expected.toXML(), x12.toXML());
+		assertEquals(28, x12.size());
+
+		ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+		direct.put(bytes).flip();
+		x12 = (X12Simple) parser.parse(direct);
+
+		assertEquals(expected.toString(), x12.toString());
+	}
+
+	@Test
+	public void testParsePath() throws Exception {
+		X12SimpleParser parser = new X12SimpleParser();
+		URL url = this.getClass().getResource("/example835One.txt");
+		X12Simple expected = (X12Simple) parser.parse(new String(
+				Files.readAllBytes(Paths.get(url.toURI())), "ISO-8859-1"));
+
+		X12Simple x12 = (X12Simple) parser.parse(Paths.get(url.toURI()));
+
+		assertEquals(expected.toString(), x12.toString());
+		assertEquals(28, x12.size());
+	}
+
+	@Test
+	public void testParseParallel() throws Exception {
+		X12SimpleParser parser = new X12SimpleParser();
+		URL url = this.getClass().getResource("/example835One.txt");
+		byte[] bytes = Files.readAllBytes(Paths.get(url.toURI()));
+		X12Simple expected = (X12Simple) parser.parse(ByteBuffer.wrap(bytes));
+
+		X12Simple x12 = (X12Simple) parser.parse(ByteBuffer.wrap(bytes), ForkJoinPool.commonPool());
+		assertEquals(expected.toString(), x12.toString());
+		assertEquals(expected.toXML(), x12.toXML());
+
+		x12 = (X12Simple) parser.parse(Paths.get(url.toURI()), ForkJoinPool.commonPool());
+		assertEquals(expected.toString(), x12.toString());
+		assertEquals(28, x12.size());
+	}
+
+	@Test
+	public void testParseIntern() throws Exception {
+		URL url = this.getClass().getResource("/example835One.txt");
+		X12Simple expected = (X12Simple) new X12SimpleParser().parse(Paths.get(url.toURI()));
+		X12Simple x12 = (X12Simple) new X12SimpleParser(true).parse(Paths.get(url.toURI()));
+
+		assertEquals(expected.toString(), x12.toString());
+		List<Segment> dtm = x12.findSegment("DTM");
+		assertSame(dtm.get(1).getElement(0), dtm.get(2).getElement(0));
+		assertSame(dtm.get(1).getElement(1), dtm.get(2).getElement(1));
+		assertEquals("20020824", dtm.get(2).getElement(2));
+		assertNotSame(dtm.get(1).getElement(2), dtm.get(2).getElement(2));
+	}
 }
@@ -2,6 +2,8 @@ package org.pb.x12;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 import org.junit.Test;
@@ -222,4 +224,76 @@ public class X12SimpleTest {
 				x12.toXML());
 	}
 
+	@Test
+	public void testFindSegmentAfterChange() {
+		X12Simple x12 = new X12Simple(new Context('~', '*', ':'));
+		x12.addSegment("ST*835*000000001");
+		x12.addSegment("CLP*1*1*100");
+		x12.addSegment("CLP*2*1*200");
+		assertEquals(2, x12.findSegment("CLP").size());
+		Segment first = x12.addSegment(1, "CLP*0*1*50");
+		List<Segment> found = x12.findSegment("CLP");
+		assertEquals(3, found.size());
+		assertSame(first, found.get(0));
+		x12.removeSegment(1);
+		assertEquals(2, x12.findSegment("CLP").size());
+		x12.setSegment(1, "SVC*HC:99213*50");
+		assertEquals(1, x12.findSegment("CLP").size());
+		assertEquals(1, x12.findSegment("SVC").size());
+		x12.getSegments().remove(1);
+		assertTrue(x12.findSegment("SVC").isEmpty());
+		x12.addSegment();
+		assertEquals(1, x12.findSegment("ST").size());
+	}
+
+	@Test
+	public void testWriteTo() throws Exception {
+		X12Simple x12 = new X12Simple(new Context('~', '*', ':'));
+		x12.addSegment("ST*835*000000001");
+		x12.addSegment("CLP*1*1*100**");
+		StringBuilder out = new StringBuilder();
+		x12.writeTo(out);
+		assertEquals("ST*835*000000001~CLP*1*1*100~", out.toString());
+		assertEquals(x12.toString(), out.toString());
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		x12.writeTo(bytes);
+		assertEquals(x12.toString(), bytes.toString("ISO-8859-1"));
+		X12Simple parsed = (X12Simple) new X12SimpleParser().parse("ISA*00*          *00*          "
+				+ "*ZZ*SENDER         *ZZ*RECEIVER       *020830*1234*U*00401*000000001*0*P*:~"
+				+ "NM1*QC*1*M\u00dcLLER~");
+		bytes.reset();
+		parsed.writeTo(bytes);
+		assertEquals(parsed.toString(), bytes.toString("ISO-8859-1"));
+		assertEquals(parsed.toString(), new X12SimpleParser()
+				.parse(ByteBuffer.wrap(bytes.toByteArray())).toString());
+	}
+
+	@Test
+	public void testWriteXML() throws Exception {
+		X12Simple x12 = new X12Simple(new Context('~', '*', ':'));
+		x12.addSegment("ST*835*000000001");
+		x12.addSegment("NM1*QC*1*M\u00dcLLER");
+		StringBuilder out = new StringBuilder();
+		x12.writeXML(out);
+		assertEquals("<X12><ST><ST01><![CDATA[835]]></ST01><ST02><![CDATA[000000001]]></ST02></ST>"
+				+ "<NM1><NM101><![CDATA[QC]]></NM101><NM102><![CDATA[1]]></NM102>"
+				+ "<NM103><![CDATA[M\u00dcLLER]]></NM103></NM1></X12>", out.toString());
+		assertEquals(x12.toXML(), out.toString());
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		x12.writeXML(bytes);
+		assertEquals(x12.toXML(), bytes.toString("UTF-8"));
+	}
+
+	@Test
+	public void testWriteJSON() throws Exception {
+		X12Simple x12 = new X12Simple(new Context('~', '*', ':'));
+		assertEquals("{\"segments\":[]}", x12.toJSON());
+		x12.addSegment("ST*835*000000001");
+		x12.addSegment("NM1*QC*1*M\u00dcLLER");
+		assertEquals("{\"segments\":[{\"id\":\"ST\",\"elements\":[\"835\",\"000000001\"]},"
+				+ "{\"id\":\"NM1\",\"elements\":[\"QC\",\"1\",\"M\u00dcLLER\"]}]}", x12.toJSON());
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		x12.writeJSON(bytes);
+		assertEquals(x12.toJSON(), bytes.toString("UTF-8"));
+	}
 }